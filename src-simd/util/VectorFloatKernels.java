@@ -0,0 +1,86 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package util;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD implementation of the kernels, with the Java Vector API. Sums are
+ * accumulated lane-wise with fused multiply-adds and reduced at the end, so
+ * results may differ from the scalar ones in the last bits.
+ * It is loaded by reflection from FloatKernels, and compiled apart (see the
+ * build-simd target in build.xml).
+ */
+public class VectorFloatKernels extends FloatKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "SIMD (Java Vector API, " + SPECIES.vectorBitSize() + " bits)";
+    }
+
+    @Override
+    public float dot(float[] x, float[] y, int n) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        final int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, i);
+            acc = vx.fma(vy, acc);
+        }
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            s += x[i] * y[i];
+        }
+        return s;
+    }
+
+    @Override
+    public float dot(float[] x, float[] y, float[] w, int n) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        final int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector vw = FloatVector.fromArray(SPECIES, w, i);
+            acc = vx.mul(vy).fma(vw, acc);
+        }
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            s += x[i] * y[i] * w[i];
+        }
+        return s;
+    }
+
+    @Override
+    public void axpy(float a, float[] x, float[] y, int from, int to) {
+        final FloatVector va = FloatVector.broadcast(SPECIES, a);
+        final int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, i);
+            vx.fma(va, vy).intoArray(y, i);
+        }
+        for (; i < to; i++) {
+            y[i] += a * x[i];
+        }
+    }
+}
@@ -35,9 +35,9 @@ public class GOTerm implements Comparable<GOTerm> {
      */
     private String function;
     /**
-     * Cache of ancestors
+     * Cache of ancestors (volatile, as it can be read by several threads)
      */
-    private Set<GOTerm> ancestorsCache;
+    private volatile Set<GOTerm> ancestorsCache;
     /**
      * More general terms this belong to, indexed by identifier of the relations
      */
@@ -55,6 +55,11 @@ public class GOTerm implements Comparable<GOTerm> {
      * Sub-ontology it belongs to
      */
     Ontology ontology;
+    /**
+     * Graph of the Gene Ontology, once built, and node of this term in it
+     */
+    private OntologyGraph graph;
+    private int index;
 
     public GOTerm(final String GOid, final String function) throws IllegalArgumentException {
         this.id = GOid;
@@ -62,6 +67,8 @@ public class GOTerm implements Comparable<GOTerm> {
         this.parents = new HashMap<String, List<GOTerm>>();
         this.children = new HashMap<String, List<GOTerm>>();
         this.ontology = null;
+        this.graph = null;
+        this.index = -1;
 
         try {
             this.numId = Integer.parseInt(GOid.split(":")[1]);
@@ -90,6 +97,28 @@ public class GOTerm implements Comparable<GOTerm> {
         this.ontology = ontology;
     }
 
+    void setGraph(OntologyGraph graph, int index) {
+        this.graph = graph;
+        this.index = index;
+        this.ancestorsCache = null;
+    }
+
+    /**
+     * @return the graph of the Gene Ontology of this term, or null if it has
+     * not been built
+     */
+    public OntologyGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * @return the node of this term in its graph, or -1 if it has not been
+     * built
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
     /**
      * Return the set of ancestors (including itself) for a certain given
      * relation
@@ -98,6 +127,9 @@ public class GOTerm implements Comparable<GOTerm> {
      * @return set of GOTerms ancestors of this
      */
     public Set<GOTerm> getAncestorsRelation(final String rel) {
+        if (this.graph != null) {
+            return this.toSet(this.graph.getAncestors(this.index, this.graph.getRelationMask(rel)));
+        }
         Set<GOTerm> ret = new HashSet<GOTerm>();
         Queue<GOTerm> queue = new LinkedList<GOTerm>();
         queue.add(this);
@@ -122,6 +154,12 @@ public class GOTerm implements Comparable<GOTerm> {
     public Set<GOTerm> getAncestors() {
 
         if (this.ancestorsCache == null) {
+            if (this.graph != null) {
+                // the graph only links terms of the same ontology
+                Set<GOTerm> ret = this.toSet(this.graph.getAncestors(this.index));
+                this.ancestorsCache = ret;
+                return ret;
+            }
             Set<GOTerm> ret = new HashSet<GOTerm>();
             Queue<GOTerm> queue = new LinkedList<GOTerm>();
             queue.add(this);
@@ -151,6 +189,9 @@ public class GOTerm implements Comparable<GOTerm> {
      * @return set of GOTerms descendants of this
      */
     public Set<GOTerm> getDescendants() {
+        if (this.graph != null) {
+            return this.toSet(this.graph.getDescendants(this.index));
+        }
 
         Set<GOTerm> ret = new HashSet<GOTerm>();
         Queue<GOTerm> queue = new LinkedList<GOTerm>();
@@ -201,6 +242,9 @@ public class GOTerm implements Comparable<GOTerm> {
      * @return set of GOTerms children of this
      */
     public Set<GOTerm> getDescendantsRelation(final String rel) {
+        if (this.graph != null) {
+            return this.toSet(this.graph.getDescendants(this.index, this.graph.getRelationMask(rel)));
+        }
         Set<GOTerm> ret = new HashSet<GOTerm>();
         Queue<GOTerm> queue = new LinkedList<GOTerm>();
         queue.add(this);
@@ -217,6 +261,15 @@ public class GOTerm implements Comparable<GOTerm> {
         return ret;
     }
 
+    //terms of the given nodes of the graph
+    private Set<GOTerm> toSet(int[] nodes) {
+        Set<GOTerm> ret = new HashSet<GOTerm>();
+        for (int node : nodes) {
+            ret.add(this.graph.getTerm(node));
+        }
+        return ret;
+    }
+
     public static void setRelations(String[] rel) {
         relations = new HashSet<String>(Arrays.asList(rel));
         /** Is_a is always added, otherwise the DAG will be
@@ -224,6 +277,15 @@ public class GOTerm implements Comparable<GOTerm> {
         relations.add("is_a");
     }
 
+    /**
+     * @return the relations being parsed, sorted by name
+     */
+    static String[] getRelations() {
+        String[] ret = relations.toArray(new String[relations.size()]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
     public boolean isRoot(final String rel) {
         return this.getParentsForRelation(rel).isEmpty();
     }
@@ -39,11 +39,26 @@ public class GeneOntology { //extends Singleton {
     /** Map identifiers of obsolete GO terms to their alternatives (marked as
     "consider_using:" */
     Map<String, List<GOTerm>> dummyTermsToGOTerms;
+    /** Integer-indexed graph of the terms, once their relations are set */
+    OntologyGraph graph;
 
     public GeneOntology() {
         this.ontologies = new HashMap<String, Ontology>();
         this.goIdToTerm = new HashMap<String, GOTerm>();
         this.dummyTermsToGOTerms = new HashMap<String, List<GOTerm>>();
+        this.graph = null;
+    }
+
+    /**
+     * @return the graph of the (non obsolete) GO terms, or null if their
+     * relations have not been set yet
+     */
+    public OntologyGraph getGraph() {
+        return this.graph;
+    }
+
+    void setGraph(OntologyGraph graph) {
+        this.graph = graph;
     }
 
     public boolean isNonObsolete(String id) {
@@ -38,12 +38,14 @@ public class GeneOntologyParser {
     List<String> consider = new ArrayList<String>();
     List<String> alternative_ids = new ArrayList<String>();
     Map<String, List<String>> related = new HashMap<String, List<String>>();
+    Map<String, GOTerm> terms;
     GeneOntology result;
 
     public GeneOntologyParser() {
         synonym = new HashMap<String, List<String>>();
         is_a = new HashMap<String, List<String>>();
         relations = new HashMap<String, Map<String, List<String>>>();
+        terms = new LinkedHashMap<String, GOTerm>();
         result = new GeneOntology();
     }
 
@@ -51,6 +53,7 @@ public class GeneOntologyParser {
         this.synonym.clear();
         this.is_a.clear();
         this.relations.clear();
+        this.terms.clear();
     }
 
     private void clearForTerm() {
@@ -159,6 +162,7 @@ public class GeneOntologyParser {
         }
 
         this.adjustRelations();
+        result.setGraph(new OntologyGraph(new ArrayList<GOTerm>(this.terms.values()), GOTerm.getRelations()));
         reader.close();
         return result;
     }
@@ -167,6 +171,7 @@ public class GeneOntologyParser {
         GOTerm term = new GOTerm(goId, name);
         result.addTermToOntology(term, ontology);
         result.putTermById(term, goId);
+        terms.put(goId, term);
         is_a.put(goId, parents);
 
         if (!this.alternative_ids.isEmpty()) {
@@ -0,0 +1,335 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package GOtree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshots of parsed Gene Ontologies, kept in a cache directory. A
+ * snapshot is identified by a SHA-256 key of the content of the OBO file,
+ * the relations being parsed (see GOTerm.setRelations) and the way obsolete
+ * terms are handled, so a new release of the GO (or another choice of
+ * relations) never uses the snapshot of a former one.
+ *
+ * A snapshot holds the terms in the order of the nodes of their
+ * OntologyGraph, their parents and children for every relation, their
+ * alternative identifiers and the alternatives of the obsolete terms. It is
+ * memory-mapped and read without any parsing of text, and the graph is built
+ * again from it. Missing, corrupted or outdated snapshots are rebuilt from
+ * the OBO file. New snapshots are written to a temporary file which is then
+ * renamed, so several processes can share the same directory.
+ */
+public class GeneOntologySnapshot {
+
+    /**
+     * First and last int of every snapshot ("GOSS")
+     */
+    private static final int MAGIC = 0x474F5353;
+    /**
+     * Version of the format, which is part of the key
+     */
+    private static final int VERSION = 1;
+    private static final String CHARSET = "UTF-8";
+    /**
+     * Directory of the snapshots
+     */
+    private final File directory;
+    /**
+     * Snapshot used by the last call, and whether it was up to date
+     */
+    private File lastSnapshot;
+    private boolean lastUpToDate;
+
+    /**
+     * @param directory directory of the snapshots (it must exist)
+     */
+    public GeneOntologySnapshot(File directory) {
+        this.directory = directory;
+        this.lastSnapshot = null;
+        this.lastUpToDate = false;
+    }
+
+    /**
+     * Same as GeneOntologyParser.readFromOBOFile, but the GO is read from its
+     * snapshot when there is an up to date one, and the snapshot is written
+     * otherwise. The relations must have been set via GOTerm.setRelations.
+     *
+     * @param OBOfileName OBO file
+     * @param useConsiderAsSynonym see GeneOntologyParser
+     * @return the Gene Ontology
+     */
+    public GeneOntology readFromOBOFile(String OBOfileName, boolean useConsiderAsSynonym) throws IOException, GeneOntologyException {
+        final String[] relations = GOTerm.getRelations();
+        final byte[] key = key(new File(OBOfileName), relations, useConsiderAsSynonym);
+        this.lastSnapshot = new File(this.directory, "gossto-" + toHex(key) + ".gosnap");
+        this.lastUpToDate = false;
+
+        if (this.lastSnapshot.isFile()) {
+            try {
+                GeneOntology result = read(this.lastSnapshot, key, relations);
+                this.lastUpToDate = true;
+                return result;
+            } catch (IOException e) {
+                System.err.println("WARNING: rebuilding the GO snapshot " + this.lastSnapshot + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("WARNING: rebuilding the corrupted GO snapshot " + this.lastSnapshot + ": " + e);
+            }
+        }
+
+        GeneOntology result = new GeneOntologyParser().readFromOBOFile(OBOfileName, useConsiderAsSynonym);
+        try {
+            write(result, this.lastSnapshot, key, relations);
+        } catch (IOException e) {
+            System.err.println("WARNING: the GO snapshot " + this.lastSnapshot + " could not be written: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * @return the snapshot of the last GO read, or null
+     */
+    public File getLastSnapshot() {
+        return this.lastSnapshot;
+    }
+
+    /**
+     * @return true if the last GO was read from its snapshot, false if it was
+     * parsed (and the snapshot written)
+     */
+    public boolean wasUpToDate() {
+        return this.lastUpToDate;
+    }
+
+    //SHA-256 of the format, the options and the content of the OBO file
+    private static byte[] key(File obo, String[] relations, boolean useConsiderAsSynonym) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available: " + e.getMessage());
+        }
+        digest.update((VERSION + "\n" + Arrays.toString(relations) + "\n" + useConsiderAsSynonym + "\n").getBytes(CHARSET));
+        InputStream in = new FileInputStream(obo);
+        try {
+            final byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    //writes the snapshot to a temporary file of the directory, and renames it
+    private static void write(GeneOntology go, File snapshot, byte[] key, String[] relations) throws IOException {
+        final OntologyGraph graph = go.getGraph();
+        final int n = graph.size();
+        List<String> ontologies = new ArrayList<String>();
+        for (int v = 0; v < n; v++) {
+            String ontology = graph.getTerm(v).getOntology().getName();
+            if (!ontologies.contains(ontology)) {
+                ontologies.add(ontology);
+            }
+        }
+
+        File tmp = File.createTempFile("gossto", ".tmp", snapshot.getParentFile());
+        boolean done = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                //0. header
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(key);
+                out.writeInt(relations.length);
+                for (String rel : relations) {
+                    writeString(out, rel);
+                }
+                out.writeInt(ontologies.size());
+                for (String ontology : ontologies) {
+                    writeString(out, ontology);
+                }
+
+                //1. terms, and their relations
+                out.writeInt(n);
+                for (int v = 0; v < n; v++) {
+                    GOTerm term = graph.getTerm(v);
+                    writeString(out, term.getGOid());
+                    writeString(out, term.getFunction());
+                    out.writeInt(ontologies.indexOf(term.getOntology().getName()));
+                }
+                for (int v = 0; v < n; v++) {
+                    GOTerm term = graph.getTerm(v);
+                    for (String rel : relations) {
+                        writeTerms(out, term.getParentsForRelation(rel));
+                        writeTerms(out, term.getChildrenForRelation(rel));
+                    }
+                }
+
+                //2. alternative identifiers, and alternatives of obsolete terms
+                List<String> alternativeIds = new ArrayList<String>();
+                for (Map.Entry<String, GOTerm> pair : go.goIdToTerm.entrySet()) {
+                    if (!pair.getKey().equals(pair.getValue().getGOid())) {
+                        alternativeIds.add(pair.getKey());
+                    }
+                }
+                out.writeInt(alternativeIds.size());
+                for (String id : alternativeIds) {
+                    writeString(out, id);
+                    out.writeInt(go.goIdToTerm.get(id).getIndex());
+                }
+                out.writeInt(go.dummyTermsToGOTerms.size());
+                for (Map.Entry<String, List<GOTerm>> pair : go.dummyTermsToGOTerms.entrySet()) {
+                    writeString(out, pair.getKey());
+                    writeTerms(out, pair.getValue());
+                }
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+            done = tmp.renameTo(snapshot);
+            if (!done) {
+                throw new IOException("the temporary file " + tmp + " could not be renamed");
+            }
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeTerms(DataOutputStream out, List<GOTerm> terms) throws IOException {
+        out.writeInt(terms.size());
+        for (GOTerm term : terms) {
+            out.writeInt(term.getIndex());
+        }
+    }
+
+    //maps the snapshot and builds the GO (and its graph) again
+    private static GeneOntology read(File snapshot, byte[] key, String[] relations) throws IOException {
+        ByteBuffer in;
+        RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        //0. header
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("not a snapshot of this version");
+        }
+        byte[] snapshotKey = new byte[key.length];
+        in.get(snapshotKey);
+        String[] snapshotRelations = new String[readCount(in)];
+        for (int r = 0; r < snapshotRelations.length; r++) {
+            snapshotRelations[r] = readString(in);
+        }
+        if (!Arrays.equals(snapshotKey, key) || !Arrays.equals(snapshotRelations, relations)) {
+            throw new IOException("the snapshot is not the one of this OBO file");
+        }
+        String[] ontologies = new String[readCount(in)];
+        for (int o = 0; o < ontologies.length; o++) {
+            ontologies[o] = readString(in);
+        }
+
+        //1. terms, and their relations
+        GeneOntology result = new GeneOntology();
+        final GOTerm[] terms = new GOTerm[readCount(in)];
+        for (int v = 0; v < terms.length; v++) {
+            final String id = readString(in);
+            terms[v] = new GOTerm(id, readString(in));
+            result.addTermToOntology(terms[v], ontologies[in.getInt()]);
+            result.putTermById(terms[v], id);
+        }
+        for (GOTerm term : terms) {
+            for (String rel : relations) {
+                for (int k = readCount(in); k > 0; k--) {
+                    term.addParent(rel, terms[in.getInt()]);
+                }
+                for (int k = readCount(in); k > 0; k--) {
+                    term.addChildren(rel, terms[in.getInt()]);
+                }
+            }
+        }
+
+        //2. alternative identifiers, and alternatives of obsolete terms
+        for (int k = readCount(in); k > 0; k--) {
+            final String id = readString(in);
+            result.putTermById(terms[in.getInt()], id);
+        }
+        for (int k = readCount(in); k > 0; k--) {
+            final String id = readString(in);
+            List<GOTerm> alternatives = new ArrayList<GOTerm>();
+            for (int a = readCount(in); a > 0; a--) {
+                alternatives.add(terms[in.getInt()]);
+            }
+            result.dummyTermsToGOTerms.put(id, alternatives);
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IOException("the snapshot is truncated");
+        }
+
+        result.setGraph(new OntologyGraph(Arrays.asList(terms), relations));
+        return result;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    //a number of elements, which must fit in the rest of the snapshot
+    private static int readCount(ByteBuffer in) throws IOException {
+        final int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("the snapshot is corrupted");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,411 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package GOtree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Frozen, integer-indexed graph of a Gene Ontology. Every term is a node
+ * 0 .. size()-1 (see GOTerm.getIndex), and its parents and children are kept
+ * as compressed sparse rows: the parents of the node v are
+ * parents[parentStart[v] .. parentStart[v+1]-1], each one with a bitmask of
+ * the relations linking both terms (bit r stands for getRelations()[r]), so
+ * a pair of terms linked by several relations is a single edge.
+ *
+ * The graph also keeps the ancestors of every term for all the relations,
+ * including itself, as sorted arrays of nodes, a topological order (every
+ * term after all of its parents) and the depth of every term (length of the
+ * longest path from a root). Some choices of relations (e.g. part_of together
+ * with has_part) make cycles: the terms which are in a cycle, or below one,
+ * have no place in the topological order and no depth (see isAcyclic).
+ *
+ * It is built once the relations of the terms are set (see
+ * GeneOntologyParser), and it is immutable from then on, so it can be shared
+ * among threads.
+ */
+public class OntologyGraph {
+
+    /**
+     * Term of every node
+     */
+    private final GOTerm[] terms;
+    /**
+     * Relation of every bit of the masks
+     */
+    private final String[] relations;
+    /**
+     * Parents of every node, and the relations to each of them
+     */
+    private final int[] parentStart;
+    private final int[] parents;
+    private final int[] parentMasks;
+    /**
+     * Children of every node, and the relations to each of them
+     */
+    private final int[] childStart;
+    private final int[] children;
+    private final int[] childMasks;
+    /**
+     * Every node after all of its parents (only the nodes which are neither in
+     * a cycle nor below one)
+     */
+    private final int[] topologicalOrder;
+    /**
+     * Length of the longest path from a root to every node (-1 for the nodes
+     * out of the topological order)
+     */
+    private final int[] depth;
+    /**
+     * Ancestors of the node v (itself included) are
+     * ancestors[ancestorStart[v] .. ancestorStart[v+1]-1], sorted
+     */
+    private final int[] ancestorStart;
+    private final int[] ancestors;
+
+    /**
+     * @param terms terms of the ontology, whose relations are already set
+     * @param relations relations between the terms
+     */
+    OntologyGraph(List<GOTerm> terms, String[] relations) {
+        if (relations.length > 32) {
+            throw new IllegalArgumentException("ERROR: At most 32 relations can be indexed");
+        }
+        this.terms = terms.toArray(new GOTerm[terms.size()]);
+        this.relations = relations.clone();
+        final int n = this.terms.length;
+        for (int v = 0; v < n; v++) {
+            this.terms[v].setGraph(this, v);
+        }
+
+        //0. parents, one edge per pair of terms with all of its relations
+        this.parentStart = new int[n + 1];
+        int[] nodes = new int[Math.max(16, n)];
+        int[] masks = new int[nodes.length];
+        int numEdges = 0;
+        for (int v = 0; v < n; v++) {
+            for (int r = 0; r < this.relations.length; r++) {
+                for (GOTerm parent : this.terms[v].getParentsForRelation(this.relations[r])) {
+                    final int p = parent.getIndex();
+                    int e = this.parentStart[v];
+                    while (e < numEdges && nodes[e] != p) {
+                        e++;
+                    }
+                    if (e == numEdges) {
+                        if (numEdges == nodes.length) {
+                            nodes = Arrays.copyOf(nodes, 2 * numEdges);
+                            masks = Arrays.copyOf(masks, 2 * numEdges);
+                        }
+                        nodes[numEdges] = p;
+                        masks[numEdges] = 0;
+                        numEdges++;
+                    }
+                    masks[e] |= 1 << r;
+                }
+            }
+            this.parentStart[v + 1] = numEdges;
+        }
+        this.parents = Arrays.copyOf(nodes, numEdges);
+        this.parentMasks = Arrays.copyOf(masks, numEdges);
+
+        //1. children, by transposing the parents
+        this.childStart = new int[n + 1];
+        for (int e = 0; e < numEdges; e++) {
+            this.childStart[this.parents[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            this.childStart[v + 1] += this.childStart[v];
+        }
+        this.children = new int[numEdges];
+        this.childMasks = new int[numEdges];
+        final int[] next = Arrays.copyOf(this.childStart, n);
+        for (int v = 0; v < n; v++) {
+            for (int e = this.parentStart[v]; e < this.parentStart[v + 1]; e++) {
+                final int c = next[this.parents[e]]++;
+                this.children[c] = v;
+                this.childMasks[c] = this.parentMasks[e];
+            }
+        }
+
+        //2. topological order and depth, from the roots down (the nodes of
+        //a cycle, and the ones below it, never get all of their parents done)
+        final int[] order = new int[n];
+        this.depth = new int[n];
+        Arrays.fill(this.depth, -1);
+        final int[] pendingParents = new int[n];
+        int head = 0, tail = 0;
+        for (int v = 0; v < n; v++) {
+            pendingParents[v] = this.parentStart[v + 1] - this.parentStart[v];
+            if (pendingParents[v] == 0) {
+                order[tail++] = v;
+                this.depth[v] = 0;
+            }
+        }
+        while (head < tail) {
+            final int v = order[head++];
+            for (int e = this.childStart[v]; e < this.childStart[v + 1]; e++) {
+                final int c = this.children[e];
+                if (--pendingParents[c] == 0) {
+                    int d = 0;
+                    for (int f = this.parentStart[c]; f < this.parentStart[c + 1]; f++) {
+                        d = Math.max(d, this.depth[this.parents[f]] + 1);
+                    }
+                    this.depth[c] = d;
+                    order[tail++] = c;
+                }
+            }
+        }
+        this.topologicalOrder = Arrays.copyOf(order, tail);
+
+        //3. ancestors, breadth first from every node
+        final int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        final int[] buffer = new int[n];
+        this.ancestorStart = new int[n + 1];
+        int[] all = new int[Math.max(16, n)];
+        for (int v = 0; v < n; v++) {
+            int count = 0;
+            mark[v] = v;
+            buffer[count++] = v;
+            for (int k = 0; k < count; k++) {
+                final int u = buffer[k];
+                for (int e = this.parentStart[u]; e < this.parentStart[u + 1]; e++) {
+                    final int a = this.parents[e];
+                    if (mark[a] != v) {
+                        mark[a] = v;
+                        buffer[count++] = a;
+                    }
+                }
+            }
+            Arrays.sort(buffer, 0, count);
+            final int from = this.ancestorStart[v];
+            if (from + count > all.length) {
+                all = Arrays.copyOf(all, Math.max(2 * all.length, from + count));
+            }
+            System.arraycopy(buffer, 0, all, from, count);
+            this.ancestorStart[v + 1] = from + count;
+        }
+        this.ancestors = Arrays.copyOf(all, this.ancestorStart[n]);
+    }
+
+    /**
+     * @return the number of terms (nodes)
+     */
+    public int size() {
+        return this.terms.length;
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return the term of the node
+     */
+    public GOTerm getTerm(int node) {
+        return this.terms[node];
+    }
+
+    /**
+     * @param nodes nodes of the graph
+     * @return the terms of the nodes, in the same order
+     */
+    public GOTerm[] getTerms(int[] nodes) {
+        GOTerm[] ret = new GOTerm[nodes.length];
+        for (int k = 0; k < nodes.length; k++) {
+            ret[k] = this.terms[nodes[k]];
+        }
+        return ret;
+    }
+
+    /**
+     * @return the relations of the graph, relation r being the bit r of the
+     * masks
+     */
+    public String[] getRelations() {
+        return this.relations.clone();
+    }
+
+    /**
+     * @param rels names of relations of the graph
+     * @return the mask with the bits of all of them
+     */
+    public int getRelationMask(String... rels) {
+        int mask = 0;
+        for (String rel : rels) {
+            int r = 0;
+            while (r < this.relations.length && !this.relations[r].equals(rel)) {
+                r++;
+            }
+            if (r == this.relations.length) {
+                throw new IllegalArgumentException("ERROR: The relation " + rel + " has not been parsed in this instance of the Gene Ontology");
+            }
+            mask |= 1 << r;
+        }
+        return mask;
+    }
+
+    /**
+     * @return the mask with the bits of all the relations
+     */
+    public int getAllRelationsMask() {
+        return (int) ((1L << this.relations.length) - 1L);
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return its parents, for any relation
+     */
+    public int[] getParents(int node) {
+        return this.getParents(node, this.getAllRelationsMask());
+    }
+
+    /**
+     * @param node a node of the graph
+     * @param relationMask relations to follow
+     * @return its parents, for any of the relations of the mask
+     */
+    public int[] getParents(int node, int relationMask) {
+        return select(this.parentStart, this.parents, this.parentMasks, node, relationMask);
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return its children, for any relation
+     */
+    public int[] getChildren(int node) {
+        return this.getChildren(node, this.getAllRelationsMask());
+    }
+
+    /**
+     * @param node a node of the graph
+     * @param relationMask relations to follow
+     * @return its children, for any of the relations of the mask
+     */
+    public int[] getChildren(int node, int relationMask) {
+        return select(this.childStart, this.children, this.childMasks, node, relationMask);
+    }
+
+    /**
+     * @return true if the relations have no cycles, so every node is in the
+     * topological order
+     */
+    public boolean isAcyclic() {
+        return this.topologicalOrder.length == this.terms.length;
+    }
+
+    /**
+     * @return every node which is neither in a cycle nor below one, after
+     * all of its parents
+     */
+    public int[] getTopologicalOrder() {
+        return this.topologicalOrder.clone();
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return length of the longest path from a root to the node (0 for the
+     * roots, -1 if the node is in a cycle or below one)
+     */
+    public int getDepth(int node) {
+        return this.depth[node];
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return number of its ancestors (itself included), for all the relations
+     */
+    public int getNumAncestors(int node) {
+        return this.ancestorStart[node + 1] - this.ancestorStart[node];
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return its ancestors (itself included), for all the relations, sorted
+     */
+    public int[] getAncestors(int node) {
+        return Arrays.copyOfRange(this.ancestors, this.ancestorStart[node], this.ancestorStart[node + 1]);
+    }
+
+    /**
+     * @param node a node of the graph
+     * @param relationMask relations to follow
+     * @return its ancestors (itself included), following only the relations
+     * of the mask, sorted
+     */
+    public int[] getAncestors(int node, int relationMask) {
+        return this.reach(this.parentStart, this.parents, this.parentMasks, node, relationMask);
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return its descendants (itself included), for all the relations,
+     * sorted
+     */
+    public int[] getDescendants(int node) {
+        return this.getDescendants(node, this.getAllRelationsMask());
+    }
+
+    /**
+     * @param node a node of the graph
+     * @param relationMask relations to follow
+     * @return its descendants (itself included), following only the relations
+     * of the mask, sorted
+     */
+    public int[] getDescendants(int node, int relationMask) {
+        return this.reach(this.childStart, this.children, this.childMasks, node, relationMask);
+    }
+
+    //the neighbours of a node (in CSR) linked by any of the relations of the mask
+    private static int[] select(int[] start, int[] adjacent, int[] masks, int node, int relationMask) {
+        int count = 0;
+        for (int e = start[node]; e < start[node + 1]; e++) {
+            if ((masks[e] & relationMask) != 0) {
+                count++;
+            }
+        }
+        int[] ret = new int[count];
+        count = 0;
+        for (int e = start[node]; e < start[node + 1]; e++) {
+            if ((masks[e] & relationMask) != 0) {
+                ret[count++] = adjacent[e];
+            }
+        }
+        return ret;
+    }
+
+    //the nodes reachable from a node (itself included), breadth first
+    private int[] reach(int[] start, int[] adjacent, int[] masks, int node, int relationMask) {
+        BitSet visited = new BitSet(this.terms.length);
+        int[] queue = new int[16];
+        int head = 0, tail = 0;
+        queue[tail++] = node;
+        visited.set(node);
+        while (head < tail) {
+            final int v = queue[head++];
+            for (int e = start[v]; e < start[v + 1]; e++) {
+                final int u = adjacent[e];
+                if ((masks[e] & relationMask) != 0 && !visited.get(u)) {
+                    visited.set(u);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, 2 * tail);
+                    }
+                    queue[tail++] = u;
+                }
+            }
+        }
+        int[] ret = Arrays.copyOf(queue, tail);
+        Arrays.sort(ret);
+        return ret;
+    }
+}
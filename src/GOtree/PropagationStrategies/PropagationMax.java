@@ -21,6 +21,7 @@ package GOtree.PropagationStrategies;
 
 import GOtree.GOTerm;
 import GOtree.GeneOntology;
+import GOtree.OntologyGraph;
 import GOtree.PropagationStrategy;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -37,6 +38,7 @@ public class PropagationMax extends PropagationStrategy {
     public Map<String, Double> propagateRow(final Map<String, Double> inputValues, final GeneOntology ontology) {
 
         Map<String, Double> outputValues = new HashMap<String, Double>();
+        OntologyGraph graph = ontology.getGraph();
 
         for (Map.Entry<String, Double> inputPair : inputValues.entrySet()) {
 
@@ -56,7 +58,8 @@ public class PropagationMax extends PropagationStrategy {
 
                 GOTerm term = terms.poll();
 
-                for (GOTerm propagatedTerm : term.getAncestors()) {
+                for (int ancestor : graph.getAncestors(term.getIndex())) {
+                    GOTerm propagatedTerm = graph.getTerm(ancestor);
 
                     String goTermId = propagatedTerm.getGOid();
                     if (!outputValues.containsKey(goTermId)) {
@@ -0,0 +1,111 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM;
+
+import GOtree.Assignment;
+import GOtree.GOTerm;
+import GOtree.OntologyGraph;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Ancestors of every term of an ontology, as bitsets. Bits are assigned to
+ * the ancestors sorted by increasing number of annotations (i.e. decreasing
+ * information content), so the most informative common ancestor of two terms
+ * is the first bit set in the AND of their bitsets.
+ *
+ * The index is immutable once built, so it can be shared among threads.
+ */
+class AncestorIndex {
+
+    /**
+     * Ancestors (including itself) of every term, one bit per ancestor
+     */
+    private final long[][] ancestors;
+    /**
+     * Number of annotations of the ancestor of every bit (increasing)
+     */
+    private final int[] annotationsByBit;
+
+    /**
+     * @param terms terms of the ontology, in the order of the HSM matrix
+     * @param annotations annotations used to count the genes of every term
+     */
+    AncestorIndex(GOTerm[] terms, Assignment annotations) {
+        //0. every ancestor of any term gets a bit
+        final OntologyGraph graph = terms.length > 0 ? terms[0].getGraph() : null;
+        final int[][] ancestorsOfTerm = new int[terms.length][];
+        final int[] bitOfNode = new int[graph != null ? graph.size() : 0];
+        Arrays.fill(bitOfNode, -1);
+        int[] all = new int[bitOfNode.length];
+        int numAncestors = 0;
+        for (int i = 0; i < terms.length; i++) {
+            ancestorsOfTerm[i] = graph.getAncestors(terms[i].getIndex());
+            for (int ancestor : ancestorsOfTerm[i]) {
+                if (bitOfNode[ancestor] < 0) {
+                    bitOfNode[ancestor] = 0;
+                    all[numAncestors++] = ancestor;
+                }
+            }
+        }
+        final int[] counts = new int[numAncestors];
+        Integer[] bitOrder = new Integer[numAncestors];
+        for (int a = 0; a < numAncestors; a++) {
+            counts[a] = annotations.countNumberOfGenesForGOTerm(graph.getTerm(all[a]).getGOid());
+            bitOrder[a] = a;
+        }
+        Arrays.sort(bitOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return counts[a] < counts[b] ? -1 : (counts[a] == counts[b] ? 0 : 1);
+            }
+        });
+        this.annotationsByBit = new int[numAncestors];
+        for (int bit = 0; bit < numAncestors; bit++) {
+            bitOfNode[all[bitOrder[bit]]] = bit;
+            this.annotationsByBit[bit] = counts[bitOrder[bit]];
+        }
+
+        //1. bitsets
+        final int numWords = (numAncestors + 63) >>> 6;
+        this.ancestors = new long[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            long[] bits = new long[numWords];
+            for (int ancestor : ancestorsOfTerm[i]) {
+                final int bit = bitOfNode[ancestor];
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            }
+            this.ancestors[i] = bits;
+        }
+    }
+
+    /**
+     * Number of annotations of the most informative common ancestor (the one
+     * with the fewest annotations) of the terms i and j.
+     *
+     * @return the number of annotations, or Integer.MAX_VALUE if the terms
+     * have no common ancestor
+     */
+    int getMICAAnnotations(int i, int j) {
+        final long[] a = this.ancestors[i], b = this.ancestors[j];
+        for (int w = 0; w < a.length; w++) {
+            final long common = a[w] & b[w];
+            if (common != 0L) {
+                return this.annotationsByBit[(w << 6) + Long.numberOfTrailingZeros(common)];
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,144 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM;
+
+import Jama.SymmetricMatrix;
+import java.util.Arrays;
+import java.util.Collection;
+import util.Parallel;
+
+/**
+ * Dominance relation between the terms of an ontology, restricted to the
+ * pairs of terms annotating some common gene (the only ones the gene-wise
+ * HSM asks about). For terms i < j, i dominates j when its row of the
+ * termwise similarity is greater or equal than the row of j in every column,
+ * and j dominates i when it is strictly greater in every column.
+ *
+ * The partners of every term are kept as a sorted array, and the ones it
+ * dominates as a bitset over the positions of that array. Every term
+ * computes its own bitset, so terms are processed in parallel.
+ *
+ * The index is immutable once built, so it can be shared among threads.
+ */
+class DominanceIndex {
+
+    /**
+     * Terms annotating a common gene with every term, sorted
+     */
+    private final int[][] partners;
+    /**
+     * Bit k of the term i is set when i dominates partners[i][k]
+     */
+    private final long[][] dominated;
+
+    /**
+     * @param termWise termwise similarity
+     * @param termsPerGene indices of the terms annotating every gene
+     */
+    DominanceIndex(final SymmetricMatrix termWise, Collection<int[]> termsPerGene) {
+        final int numTerms = termWise.getRowDimension();
+
+        //0. terms annotating a common gene with every term
+        int[] numPartners = new int[numTerms];
+        for (int[] terms : termsPerGene) {
+            for (int t : terms) {
+                numPartners[t] += terms.length - 1;
+            }
+        }
+        this.partners = new int[numTerms][];
+        for (int t = 0; t < numTerms; t++) {
+            this.partners[t] = new int[numPartners[t]];
+        }
+        Arrays.fill(numPartners, 0);
+        for (int[] terms : termsPerGene) {
+            for (int a = 0; a < terms.length; a++) {
+                for (int b = 0; b < terms.length; b++) {
+                    if (a != b) {
+                        this.partners[terms[a]][numPartners[terms[a]]++] = terms[b];
+                    }
+                }
+            }
+        }
+
+        //1. dominated partners of every term
+        this.dominated = new long[numTerms][];
+        Parallel.forRange(0, numTerms, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                //whole row of the term (the rows of its partners are read
+                //element by element, as most comparisons stop early)
+                final float[] S_i = new float[numTerms];
+                for (int i = from; i < to; i++) {
+                    partners[i] = sortedWithoutRepetitions(partners[i], i);
+                    final int[] p = partners[i];
+                    final long[] bits = new long[(p.length + 63) >>> 6];
+                    if (p.length > 0) {
+                        termWise.getRow(i, S_i);
+                    }
+                    for (int k = 0; k < p.length; k++) {
+                        final boolean isDominated = i < p[k]
+                                ? isGreaterOrEqual(S_i, termWise, p[k])
+                                : isStrictlyGreater(S_i, termWise, p[k]);
+                        if (isDominated) {
+                            bits[k >>> 6] |= 1L << (k & 63);
+                        }
+                    }
+                    dominated[i] = bits;
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells whether the term i dominates the term j (false if they do not
+     * annotate any common gene).
+     */
+    boolean dominates(int i, int j) {
+        final int k = Arrays.binarySearch(this.partners[i], j);
+        return k >= 0 && (this.dominated[i][k >>> 6] & (1L << (k & 63))) != 0L;
+    }
+
+    //sorts the terms, removing repetitions and the term itself
+    private static int[] sortedWithoutRepetitions(int[] terms, int self) {
+        Arrays.sort(terms);
+        int n = 0;
+        for (int k = 0; k < terms.length; k++) {
+            if (terms[k] != self && (n == 0 || terms[k] != terms[n - 1])) {
+                terms[n++] = terms[k];
+            }
+        }
+        return n == terms.length ? terms : Arrays.copyOf(terms, n);
+    }
+
+    //x[c] >= S(j,c) for every column c, stopping at the first one which fails
+    private static boolean isGreaterOrEqual(float[] x, SymmetricMatrix S, int j) {
+        for (int c = 0; c < x.length; c++) {
+            if (!(x[c] >= S.get(j, c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //x[c] > S(j,c) for every column c, stopping at the first one which fails
+    private static boolean isStrictlyGreater(float[] x, SymmetricMatrix S, int j) {
+        for (int c = 0; c < x.length; c++) {
+            if (!(S.get(j, c) < x[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM.GeneAggregations;
+
+/**
+ * Average of the similarities between every term of the first gene and every
+ * term of the second (NaN similarities are left out, and a block with only NaN
+ * values gives NaN).
+ */
+public class AverageAggregation extends GeneAggregation {
+
+    @Override
+    public String getName() {
+        return "average";
+    }
+
+    @Override
+    public float aggregate(TermBlockReductions block) {
+        return block.getSum() / (float) block.getNumValues();
+    }
+}
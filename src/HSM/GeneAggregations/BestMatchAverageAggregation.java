@@ -0,0 +1,34 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM.GeneAggregations;
+
+/**
+ * Best-match average: every term of each gene is matched with the most similar
+ * term of the other gene, and all the matches are averaged (terms with only NaN
+ * similarities have no match, and a block with only NaN values gives NaN).
+ */
+public class BestMatchAverageAggregation extends GeneAggregation {
+
+    @Override
+    public String getName() {
+        return "best-match average";
+    }
+
+    @Override
+    public float aggregate(TermBlockReductions block) {
+        return (block.getSumOfRowMaxima() + block.getSumOfColumnMaxima())
+                / (float) (block.getNumRowMaxima() + block.getNumColumnMaxima());
+    }
+}
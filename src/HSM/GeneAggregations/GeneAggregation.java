@@ -0,0 +1,47 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM.GeneAggregations;
+
+/**
+ * Strategy used to aggregate the similarities between the terms of two genes
+ * into the similarity between the genes. Aggregations work on the reductions
+ * of the block of term similarities, which are computed once per pair of
+ * genes, so that several aggregations can be computed in a single pass.
+ */
+public abstract class GeneAggregation {
+
+    /**
+     * @return name of the aggregation, to be logged
+     */
+    public abstract String getName();
+
+    /**
+     * @param block reductions of the similarities between the terms of both
+     * genes
+     * @return similarity between the genes
+     */
+    public abstract float aggregate(TermBlockReductions block);
+
+    /**
+     * Tells whether a term whose similarities are all lower or equal than the
+     * ones of another term of the same gene can be discarded, without changing
+     * the aggregation. This only holds for the maximum.
+     *
+     * @return true if dominated terms can be removed
+     */
+    public boolean allowsDominanceFiltering() {
+        return false;
+    }
+}
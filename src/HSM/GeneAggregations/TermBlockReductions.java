@@ -0,0 +1,153 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM.GeneAggregations;
+
+import Jama.SymmetricMatrix;
+
+/**
+ * Reductions of the block of similarities S(rows, columns) between the terms
+ * of two genes: overall maximum, sum, and sums of the row and column maxima.
+ * All of them are computed in a single pass over the block, without
+ * allocating. An instance is meant to be reused by a single thread.
+ *
+ * NaN similarities are ignored by all the reductions: they are not added to
+ * the sum, and rows (or columns) with only NaN values have no maximum. The
+ * counts of the values and maxima which were actually added are kept, so
+ * averages are taken over them. A block with only NaN values has a maximum
+ * of -Infinity (as in HSM.matrixMax) and nothing to average.
+ */
+public class TermBlockReductions {
+
+    private float max;
+    private float sum;
+    private float sumOfRowMaxima;
+    private float sumOfColumnMaxima;
+    private int numRows;
+    private int numColumns;
+    private int numValues;
+    private int numRowMaxima;
+    private int numColumnMaxima;
+    private float[] columnMaxima = new float[16];
+    private boolean[] columnHasValues = new boolean[16];
+
+    /**
+     * Computes the reductions of S(rows, columns).
+     *
+     * @param S termwise similarity
+     * @param rows terms of the first gene
+     * @param columns terms of the second gene
+     */
+    public void compute(SymmetricMatrix S, int[] rows, int[] columns) {
+        final int n = columns.length;
+        if (this.columnMaxima.length < n) {
+            this.columnMaxima = new float[Math.max(n, 2 * this.columnMaxima.length)];
+            this.columnHasValues = new boolean[this.columnMaxima.length];
+        }
+        final float[] colMax = this.columnMaxima;
+        final boolean[] colHasValues = this.columnHasValues;
+        for (int c = 0; c < n; c++) {
+            colMax[c] = Float.NEGATIVE_INFINITY;
+            colHasValues[c] = false;
+        }
+
+        float _max = Float.NEGATIVE_INFINITY, _sum = 0.0f, _sumRows = 0.0f;
+        int _numValues = 0, _numRows = 0;
+        for (int r : rows) {
+            float rowMax = Float.NEGATIVE_INFINITY;
+            int rowValues = 0;
+            for (int c = 0; c < n; c++) {
+                final float v = S.get(r, columns[c]);
+                if (v != v) {
+                    continue;
+                }
+                _sum += v;
+                rowValues++;
+                rowMax = rowMax < v ? v : rowMax;
+                colMax[c] = colMax[c] < v ? v : colMax[c];
+                colHasValues[c] = true;
+            }
+            if (rowValues > 0) {
+                _sumRows += rowMax;
+                _numRows++;
+                _numValues += rowValues;
+                _max = _max < rowMax ? rowMax : _max;
+            }
+        }
+        float _sumColumns = 0.0f;
+        int _numColumns = 0;
+        for (int c = 0; c < n; c++) {
+            if (colHasValues[c]) {
+                _sumColumns += colMax[c];
+                _numColumns++;
+            }
+        }
+
+        this.max = _max;
+        this.sum = _sum;
+        this.sumOfRowMaxima = _sumRows;
+        this.sumOfColumnMaxima = _sumColumns;
+        this.numRows = rows.length;
+        this.numColumns = n;
+        this.numValues = _numValues;
+        this.numRowMaxima = _numRows;
+        this.numColumnMaxima = _numColumns;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    public float getSum() {
+        return sum;
+    }
+
+    public float getSumOfRowMaxima() {
+        return sumOfRowMaxima;
+    }
+
+    public float getSumOfColumnMaxima() {
+        return sumOfColumnMaxima;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * @return number of (non NaN) values added to the sum
+     */
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /**
+     * @return number of rows with some (non NaN) value, whose maxima are added
+     */
+    public int getNumRowMaxima() {
+        return numRowMaxima;
+    }
+
+    /**
+     * @return number of columns with some (non NaN) value, whose maxima are
+     * added
+     */
+    public int getNumColumnMaxima() {
+        return numColumnMaxima;
+    }
+}
@@ -16,15 +16,27 @@ package HSM.GraphSimilarities;
 
 import GOtree.Assignment;
 import GOtree.GOTerm;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
+ * Similarity between the sets of terms of two genes.
+ *
+ * GOssTo compares the sets as bitsets over the terms given to setTerms (bit
+ * k is the k-th term), so that comparing a pair of genes does not allocate.
+ * By default the bitsets are converted back to sets of terms; the measures of
+ * GOssTo override this to work on the bits. Implementations are called from
+ * several threads at the same time once setTerms has been called.
  *
  * @author Alfonso E. Romero
  */
 public abstract class GraphSimilarity {
 
     Assignment annotations;
+    /**
+     * Term of every bit
+     */
+    private GOTerm[] terms;
 
     public GraphSimilarity(Assignment annotations) {
         this.annotations = annotations;
@@ -33,4 +45,40 @@ public abstract class GraphSimilarity {
     public abstract float similarity(Set<GOTerm> s1, Set<GOTerm> s2);
 
     public abstract void setMaxAnnotations(double annot);
+
+    /**
+     * Sets the terms of the bits of the sets to compare (called after
+     * setMaxAnnotations).
+     *
+     * @param terms term of every bit
+     */
+    public void setTerms(GOTerm[] terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * Same as similarity(Set, Set), with the sets as bitsets.
+     */
+    public float similarity(long[] s1, long[] s2) {
+        return this.similarity(this.toSet(s1), this.toSet(s2));
+    }
+
+    /**
+     * Weight of the term of every bit, such that the similarity is the
+     * weighted Jaccard index of the sets (used by MinHashLSH), or null if
+     * all the terms weigh the same (the default).
+     */
+    public float[] getTermWeights() {
+        return null;
+    }
+
+    private Set<GOTerm> toSet(long[] bits) {
+        Set<GOTerm> set = new HashSet<GOTerm>();
+        for (int w = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0L; word &= word - 1) {
+                set.add(this.terms[(w << 6) + Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return set;
+    }
 }
@@ -0,0 +1,260 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM.GraphSimilarities;
+
+import Jama.SparseMatrix;
+import java.util.Arrays;
+import util.Parallel;
+
+/**
+ * Approximate all-vs-all comparison of the term sets of the genes, for
+ * genome-scale runs where the quadratic exact comparison is too expensive.
+ *
+ * Every gene gets a weighted MinHash signature: for every hash function, the
+ * term of its set with the smallest exponential race key, -ln(U)/w, with U
+ * uniform and w the weight of the term. Two genes share that term with
+ * probability w(intersection)/w(union), which is simGIC when the weights are
+ * the IC of the terms, and simUI when they are all 1. Signatures are split
+ * in bands, and only the genes falling in the same bucket of some band (LSH)
+ * are compared, by the fraction of hashes their signatures share.
+ *
+ * The number of rows per band is chosen from the threshold, so that pairs a
+ * bit below it are already likely to become candidates.
+ */
+public class MinHashLSH {
+
+    /**
+     * Number of hash functions in every signature
+     */
+    public static final int NUM_HASHES = 128;
+    /**
+     * Bits of the packed bucket keys used by the gene index
+     */
+    private static final int GENE_BITS = 24;
+    private final float threshold;
+    private final int rowsPerBand;
+    private final int numBands;
+    private final long seed;
+    /**
+     * Term (bit) of every hash for every gene, -1 if the gene has no
+     * weighted term
+     */
+    private int[][] signatures;
+
+    /**
+     * @param threshold minimum estimated similarity of the returned pairs
+     * @param seed seed of the hash functions
+     */
+    public MinHashLSH(float threshold, long seed) {
+        this.threshold = threshold;
+        this.seed = seed;
+        //largest band whose S-curve is centred below 85% of the threshold
+        int rows = 1;
+        while (2 * rows <= NUM_HASHES
+                && Math.pow(1.0 / (NUM_HASHES / (2 * rows)), 1.0 / (2 * rows)) <= 0.85 * threshold) {
+            rows *= 2;
+        }
+        this.rowsPerBand = rows;
+        this.numBands = NUM_HASHES / rows;
+    }
+
+    public int getNumBands() {
+        return this.numBands;
+    }
+
+    public int getRowsPerBand() {
+        return this.rowsPerBand;
+    }
+
+    /**
+     * Pairs of genes whose estimated similarity is at least the threshold.
+     *
+     * @param termBits terms of every gene, as bitsets
+     * @param weights weight of every term (bit), null for the unweighted
+     * similarity
+     * @return upper triangular matrix, with the estimated similarity of the
+     * pairs found (i &lt; j)
+     */
+    public SparseMatrix similarPairs(long[][] termBits, float[] weights) {
+        final int numGenes = termBits.length;
+        if (numGenes >= (1 << GENE_BITS)) {
+            throw new IllegalArgumentException("Too many genes for the LSH index: " + numGenes);
+        }
+        this.signatures = this.computeSignatures(termBits, weights);
+
+        //0. every band, sorted by bucket (bucket key in the high bits, gene in the low ones)
+        final long[][] buckets = new long[this.numBands][];
+        final int[][] position = new int[this.numBands][numGenes];
+        Parallel.forRange(0, this.numBands, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int b = from; b < to; b++) {
+                    long[] keys = new long[numGenes];
+                    for (int g = 0; g < numGenes; g++) {
+                        keys[g] = (bandHash(signatures[g], b) << GENE_BITS) | g;
+                    }
+                    Arrays.sort(keys);
+                    for (int p = 0; p < numGenes; p++) {
+                        position[b][(int) (keys[p] & ((1 << GENE_BITS) - 1))] = p;
+                    }
+                    buckets[b] = keys;
+                }
+            }
+        });
+
+        //1. candidates of every gene, counted in the first band they share
+        final int[][] rowCols = new int[numGenes][];
+        final float[][] rowVals = new float[numGenes][];
+        Parallel.forRange(0, numGenes, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                int[] cols = new int[16];
+                float[] vals = new float[16];
+                for (int i = from; i < to; i++) {
+                    int n = 0;
+                    if (signatures[i][0] >= 0) {
+                        for (int b = 0; b < numBands; b++) {
+                            final long[] keys = buckets[b];
+                            final long bucket = keys[position[b][i]] >>> GENE_BITS;
+                            for (int p = position[b][i] + 1; p < numGenes && (keys[p] >>> GENE_BITS) == bucket; p++) {
+                                final int j = (int) (keys[p] & ((1 << GENE_BITS) - 1));
+                                //genes of a bucket are sorted, so j > i
+                                if (signatures[j][0] < 0 || !isFirstSharedBand(i, j, b)) {
+                                    continue;
+                                }
+                                final float estimate = estimate(i, j);
+                                if (estimate >= threshold) {
+                                    if (n == cols.length) {
+                                        cols = Arrays.copyOf(cols, 2 * n);
+                                        vals = Arrays.copyOf(vals, 2 * n);
+                                    }
+                                    cols[n] = j;
+                                    vals[n++] = estimate;
+                                }
+                            }
+                        }
+                    }
+                    storeRow(i, cols, vals, n, rowCols, rowVals);
+                }
+            }
+        });
+        return SparseMatrix.fromRows(numGenes, numGenes, rowCols, rowVals);
+    }
+
+    /**
+     * Fraction of the hashes in which the signatures of two genes agree
+     * (after similarPairs).
+     */
+    public float estimate(int i, int j) {
+        final int[] s1 = this.signatures[i], s2 = this.signatures[j];
+        int equal = 0;
+        for (int h = 0; h < NUM_HASHES; h++) {
+            if (s1[h] == s2[h]) {
+                equal++;
+            }
+        }
+        return (float) equal / (float) NUM_HASHES;
+    }
+
+    private int[][] computeSignatures(final long[][] termBits, float[] weights) {
+        final int numTerms = termBits.length == 0 ? 0 : termBits[0].length << 6;
+
+        //0. race key of every term for every hash, +inf for terms of weight 0
+        final float[] race = new float[numTerms * NUM_HASHES];
+        for (int k = 0; k < numTerms; k++) {
+            final float w = weights == null ? 1.0f : (k < weights.length ? weights[k] : 0.0f);
+            for (int h = 0; h < NUM_HASHES; h++) {
+                final double u = (mix(this.seed + (long) k * NUM_HASHES + h) >>> 11) * 0x1.0p-53;
+                race[k * NUM_HASHES + h] = w > 0.0f ? (float) (-Math.log(1.0 - u) / w) : Float.POSITIVE_INFINITY;
+            }
+        }
+
+        //1. term with the smallest key for every hash
+        final int[][] sig = new int[termBits.length][NUM_HASHES];
+        Parallel.forRange(0, termBits.length, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                float[] min = new float[NUM_HASHES];
+                for (int g = from; g < to; g++) {
+                    final int[] s = sig[g];
+                    Arrays.fill(s, -1);
+                    Arrays.fill(min, Float.POSITIVE_INFINITY);
+                    final long[] bits = termBits[g];
+                    for (int w = 0; w < bits.length; w++) {
+                        long word = bits[w];
+                        while (word != 0L) {
+                            final int k = (w << 6) + Long.numberOfTrailingZeros(word);
+                            final int base = k * NUM_HASHES;
+                            for (int h = 0; h < NUM_HASHES; h++) {
+                                if (race[base + h] < min[h]) {
+                                    min[h] = race[base + h];
+                                    s[h] = k;
+                                }
+                            }
+                            word &= word - 1;
+                        }
+                    }
+                }
+            }
+        });
+        return sig;
+    }
+
+    //tells whether b is the first band in which the signatures of i and j agree
+    private boolean isFirstSharedBand(int i, int j, int b) {
+        final int[] s1 = this.signatures[i], s2 = this.signatures[j];
+        for (int earlier = 0; earlier < b; earlier++) {
+            boolean same = true;
+            for (int h = earlier * this.rowsPerBand; h < (earlier + 1) * this.rowsPerBand && same; h++) {
+                same = s1[h] == s2[h];
+            }
+            if (same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //hash of the rows of a band, in the 40 high bits left free by the gene
+    private long bandHash(int[] signature, int band) {
+        long h = band;
+        for (int r = band * this.rowsPerBand; r < (band + 1) * this.rowsPerBand; r++) {
+            h = mix(h * 31 + signature[r]);
+        }
+        return h >>> GENE_BITS;
+    }
+
+    private static void storeRow(int i, int[] cols, float[] vals, int n, int[][] rowCols, float[][] rowVals) {
+        //columns are found band by band, sort them keeping their values
+        long[] packed = new long[n];
+        for (int k = 0; k < n; k++) {
+            packed[k] = ((long) cols[k] << 32) | (Float.floatToIntBits(vals[k]) & 0xffffffffL);
+        }
+        Arrays.sort(packed);
+        rowCols[i] = new int[n];
+        rowVals[i] = new float[n];
+        for (int k = 0; k < n; k++) {
+            rowCols[i][k] = (int) (packed[k] >>> 32);
+            rowVals[i][k] = Float.intBitsToFloat((int) packed[k]);
+        }
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -26,12 +26,25 @@ import java.util.Set;
 public class SimGICSimilarity extends GraphSimilarity {
 
     double maxAnnot;
+    /**
+     * Information content of the term of every bit
+     */
+    private float[] IC;
 
     public SimGICSimilarity(Assignment annotations) {
         super(annotations);
         this.maxAnnot = 0.0;
     }
 
+    @Override
+    public void setTerms(GOTerm[] terms) {
+        super.setTerms(terms);
+        this.IC = new float[terms.length];
+        for (int k = 0; k < terms.length; k++) {
+            this.IC[k] = this.getInformationContent(terms[k]);
+        }
+    }
+
     @Override
     public float similarity(Set<GOTerm> s1, Set<GOTerm> s2) {
         Set<GOTerm> union = new HashSet<GOTerm>(s1);
@@ -56,6 +69,36 @@ public class SimGICSimilarity extends GraphSimilarity {
         }
     }
 
+    @Override
+    public float similarity(long[] s1, long[] s2) {
+        float numerator = 0.0f, denominator = 0.0f;
+
+        for (int w = 0; w < s1.length; w++) {
+            final long intersection = s1[w] & s2[w];
+            long union = s1[w] | s2[w];
+            while (union != 0L) {
+                final int k = Long.numberOfTrailingZeros(union);
+                final float ic = this.IC[(w << 6) + k];
+                denominator += ic;
+                if ((intersection & (1L << k)) != 0L) {
+                    numerator += ic;
+                }
+                union &= union - 1;
+            }
+        }
+
+        if (denominator > 0.0f) {
+            return numerator / denominator;
+        } else {
+            return 0.0f;
+        }
+    }
+
+    @Override
+    public float[] getTermWeights() {
+        return this.IC;
+    }
+
     @Override
     public void setMaxAnnotations(double annot) {
         this.maxAnnot = annot;
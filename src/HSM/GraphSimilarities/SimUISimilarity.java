@@ -28,7 +28,7 @@ public class SimUISimilarity extends GraphSimilarity {
     public SimUISimilarity(Assignment annotations) {
         super(annotations);
     }
-    
+
     @Override
     public float similarity(Set<GOTerm> s1, Set<GOTerm> s2) {
         Set<GOTerm> union = new HashSet<GOTerm>(s1);
@@ -42,6 +42,25 @@ public class SimUISimilarity extends GraphSimilarity {
         }
     }
 
+    @Override
+    public float similarity(long[] s1, long[] s2) {
+        int intersection = 0, union = 0;
+        for (int w = 0; w < s1.length; w++) {
+            intersection += Long.bitCount(s1[w] & s2[w]);
+            union += Long.bitCount(s1[w] | s2[w]);
+        }
+        if (union > 0) {
+            return (float) intersection / (float) union;
+        } else {
+            return 0.0f;
+        }
+    }
+
+    @Override
+    public float[] getTermWeights() {
+        return null;
+    }
+
     @Override
     public void setMaxAnnotations(double annot) {
         //
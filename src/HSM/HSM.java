@@ -16,17 +16,31 @@ package HSM;
 
 import GOtree.Assignment;
 import GOtree.GOTerm;
+import GOtree.OntologyGraph;
+import HSM.GeneAggregations.GeneAggregation;
+import HSM.GeneAggregations.MaximumAggregation;
+import HSM.GeneAggregations.TermBlockReductions;
 import HSM.GraphSimilarities.GraphSimilarity;
+import HSM.GraphSimilarities.MinHashLSH;
 import Jama.Matrix;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import util.Parallel;
 import util.TinyLogger;
 
 /**
@@ -57,6 +71,20 @@ public abstract class HSM {
     protected final static String[] longOntologyName = {"Biological Process", "Molecular Function", "Cellular Component"};
     protected String[] computedGenes;
     protected boolean isAGraphBasedMeasure;
+    protected GeneAggregation geneAggregation; //how term similarities are aggregated into gene similarities
+    private static final int RECALL_SAMPLE_SIZE = 100; //genes compared exactly to report the recall of the approximate mode
+    private static final long APPROXIMATE_SEED = 1234567L; //seed of the MinHash functions and of the recall sample
+    private final AncestorIndex[] ancestorIndex = new AncestorIndex[3]; //built on demand, for every ontology
+
+    /**
+     * Similarity between the terms (or genes) i and j of an ontology
+     * (i &lt;= j), used by the parallel driver fillSymmetric. Implementations
+     * are called from several threads at the same time.
+     */
+    protected interface TermPairFunction {
+
+        float compute(int i, int j);
+    }
 
     // Constructor for HSM genewise, takes a listing of all GO terms, a listing of all genes, a mapping 
     // of gene IDs to GO terms, whether or not a log file is to be written, the axis for the adjacencies, any specific terms, 
@@ -108,6 +136,7 @@ public abstract class HSM {
         }
 
         isAGraphBasedMeasure = false; // not a graph-based measure by default
+        geneAggregation = new MaximumAggregation(); // genes are compared by their most similar terms by default
     }
 
     //Returns the largest annotation value for normalisation purposes
@@ -128,6 +157,41 @@ public abstract class HSM {
 
     public abstract Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError;
 
+    /**
+     * Gene-wise similarity as a SymmetricMatrix, which is what GOssTo uses.
+     * By default the upper triangle of calculateGeneWiseSemanticSimilarity is
+     * taken; the measures of GOssTo override this to fill it directly.
+     *
+     * @param ontology ontology to compute
+     * @return gene-wise similarity matrix
+     */
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return SymmetricMatrix.fromMatrix(this.calculateGeneWiseSemanticSimilarity(ontology));
+    }
+
+    /**
+     * Same as above, for the term-wise similarity.
+     *
+     * @param ontology ontology to compute
+     * @return term-wise similarity matrix
+     */
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return SymmetricMatrix.fromMatrix(this.calculateTermWiseSemanticSimilarity(ontology));
+    }
+
+    /**
+     * Approximate gene-wise similarity: only the pairs of genes whose
+     * estimated similarity is at least the threshold, with that estimate.
+     * Only supported by graph-based measures.
+     *
+     * @param ontology ontology to compute
+     * @param threshold minimum similarity of the returned pairs
+     * @return upper triangular matrix with the pairs found (i &lt; j)
+     */
+    public SparseMatrix calculateApproximateGeneWiseSemanticSimilarity(int ontology, float threshold) throws IOException, OutOfMemoryError {
+        throw new UnsupportedOperationException("Approximate similarities are only supported by graph-based measures.");
+    }
+
     //Determine the lowest common ancestor of two terms & normalise the probability by the largest annotation value in the relevant ontology
     protected double lowestCommonAncestor(Set<GOTerm> ancestorsOne, Set<GOTerm> ancestorsTwo, int dag) {
         List<GOTerm> commonAncestors = new ArrayList<GOTerm>();
@@ -151,6 +215,83 @@ public abstract class HSM {
         return (double) annoCount / maxAnnotationNumber[dag];
     }
 
+    //Same as above, for the terms i and j of the ontology dag, looking up their ancestors in the index
+    protected double lowestCommonAncestor(AncestorIndex index, int i, int j, int dag) {
+        return (double) index.getMICAAnnotations(i, j) / maxAnnotationNumber[dag];
+    }
+
+    //Returns the ancestor index of the terms of the given ontology, building it the first time
+    protected synchronized AncestorIndex getAncestorIndex(int dag) throws IOException {
+        if (this.ancestorIndex[dag] == null) {
+            this.logwriter.showTimedMessage("Building ancestor index for " + longOntologyName[dag]);
+            this.ancestorIndex[dag] = new AncestorIndex(this.matrixAxis[dag], this.annotations);
+        }
+        return this.ancestorIndex[dag];
+    }
+
+    /**
+     * Sets result(i,j) (and so result(j,i)) to f(i,j), for every row
+     * i &lt; numRows and every column j &gt;= i. The triangle is split in bands of rows with the
+     * same number of pairs, which are run in parallel (see util.Parallel).
+     * Every pair is computed exactly as in a sequential loop, so the result
+     * does not depend on the number of threads.
+     *
+     * @param result symmetric matrix where the values are written
+     * @param numRows number of rows of the triangle to compute
+     * @param f similarity of every pair
+     */
+    protected void fillSymmetric(final SymmetricMatrix result, final int numRows, final TermPairFunction f) {
+        final int N = result.getColumnDimension();
+        if (numRows <= 0) {
+            return;
+        }
+
+        //0. bands of rows with the same number of pairs (row i has N - i)
+        final int numBands = Math.min(numRows, Parallel.getNumThreads() * 8);
+        final int[] bandStart = new int[numBands + 1];
+        double totalPairs = 0.0;
+        for (int i = 0; i < numRows; i++) {
+            totalPairs += N - i;
+        }
+        double pairs = 0.0;
+        int band = 1;
+        for (int i = 0; i < numRows && band < numBands; i++) {
+            pairs += N - i;
+            while (band < numBands && pairs >= totalPairs * band / numBands) {
+                bandStart[band++] = i + 1;
+            }
+        }
+        while (band <= numBands) {
+            bandStart[band++] = numRows;
+        }
+
+        //1. bands are computed in parallel, every pair is written only once
+        Parallel.forRange(0, numBands, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final float[] C_i = new float[N];
+                for (int b = from; b < to; b++) {
+                    for (int i = bandStart[b]; i < bandStart[b + 1]; i++) {
+                        for (int j = i; j < N; j++) {
+                            C_i[j] = f.compute(i, j);
+                        }
+                        result.setRow(i, C_i);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the aggregation used to compute the gene-wise similarity from the
+     * termwise one (not used by graph-based measures).
+     *
+     * @param geneAggregation the aggregation
+     */
+    public void setGeneAggregation(GeneAggregation geneAggregation) {
+        this.geneAggregation = geneAggregation;
+    }
+
     public int getNumGOTermsPerOntology(int ontology) {
         return this.numGOtermsPerOntology[ontology];
     }
@@ -232,38 +373,225 @@ public abstract class HSM {
     }
 
     protected Matrix geneWiseSimilarityByMaximum(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateGeneWiseSemanticSimilarities(ontology, new GeneAggregation[]{new MaximumAggregation()})[0].toMatrix();
+    }
+
+    //Gene-wise similarity aggregating the termwise one with the chosen gene aggregation (maximum by default)
+    protected SymmetricMatrix geneWiseSimilarityByAggregation(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateGeneWiseSemanticSimilarities(ontology, new GeneAggregation[]{this.geneAggregation})[0];
+    }
+
+    /**
+     * Computes the gene-wise similarity for several aggregations of the
+     * termwise similarity at once. The termwise similarity is computed once,
+     * and for every pair of genes all the aggregations are computed from the
+     * same pass over their block of term similarities.
+     *
+     * @param ontology ontology to compute
+     * @param aggregations aggregations to compute
+     * @return a gene-wise similarity matrix for every aggregation
+     */
+    public SymmetricMatrix[] calculateGeneWiseSemanticSimilarities(int ontology, GeneAggregation[] aggregations) throws IOException, OutOfMemoryError {
         //compute the semantic similarity
-        Matrix termWise = this.calculateTermWiseSemanticSimilarity(ontology);
+        SymmetricMatrix termWise = this.calculateTermWiseSemanticSimilaritySymmetric(ontology);
+        final int[][] goTermsPerGene = this.getGOTermsPerGene(ontology, termWise, aggregations);
+        final int NUM_GENES_ONTOLOGY = goTermsPerGene.length;
 
-        Map<Integer, Set<Integer>> dominates = this.computeDominancies(termWise);
+        String names = aggregations[0].getName();
+        for (int a = 1; a < aggregations.length; a++) {
+            names += ", " + aggregations[a].getName();
+        }
+        this.logwriter.showMessage("Computing genewise semantic similarity by " + names + " (" + NUM_GENES_ONTOLOGY + " genes)");
 
-        Map<String, int[]> goIdsPerGene = new HashMap<String, int[]>();
+        SymmetricMatrix[] results = new SymmetricMatrix[aggregations.length];
+        for (int a = 0; a < aggregations.length; a++) {
+            results[a] = new SymmetricMatrix(NUM_GENES_ONTOLOGY);
+        }
+
+        if (aggregations.length == 1 && aggregations[0] instanceof MaximumAggregation) {
+            //the maximum alone is faster by projection
+            this.geneWiseMaximumByProjection(termWise, goTermsPerGene, results[0], null);
+        } else {
+            this.geneWiseAggregations(termWise, goTermsPerGene, aggregations, results, null);
+        }
+
+        logwriter.log("Completed HSM for " + shortOntologyName[ontology]);
+        System.out.println("Completed HSM for Ontology: " + longOntologyName[ontology]);
+
+        return results;
+    }
+
+    /**
+     * Nearest neighbours of every gene, as the top k of the rows of the
+     * gene-wise similarity. By default the whole matrix is computed, and then
+     * reduced row by row.
+     *
+     * @param ontology ontology to compute
+     * @param k number of neighbours of every gene
+     * @return the neighbours of every gene (in the order of getSubSetGenes)
+     */
+    public TopKNeighbours calculateGeneWiseSemanticSimilarityTopK(int ontology, int k) throws IOException, OutOfMemoryError {
+        return TopKNeighbours.fromMatrix(this.calculateGeneWiseSemanticSimilaritySymmetric(ontology), k);
+    }
+
+    /**
+     * Gene-wise similarity as rows which can be computed one by one, so that
+     * it can be processed by blocks of rows. By default the whole matrix is
+     * computed (and stored), and its rows are returned.
+     *
+     * @param ontology ontology to compute
+     * @return the rows of the similarity of every gene (in the order of
+     * getSubSetGenes)
+     */
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology);
+    }
+
+    //Rows of the gene-wise similarity by the chosen gene aggregation, computed
+    //on demand from the termwise similarity, the only matrix which is stored
+    protected SymmetricRows geneWiseSimilarityRowsByAggregation(int ontology) throws IOException, OutOfMemoryError {
+        final SymmetricMatrix termWise = this.calculateTermWiseSemanticSimilaritySymmetric(ontology);
+        final GeneAggregation aggregation = this.geneAggregation;
+        final int[][] goTermsPerGene = this.getGOTermsPerGene(ontology, termWise, new GeneAggregation[]{aggregation});
+        final int numGenes = goTermsPerGene.length;
+        final int numTerms = termWise.getColumnDimension();
+        final boolean byProjection = aggregation instanceof MaximumAggregation;
+        this.logwriter.showMessage("Computing genewise semantic similarity by " + aggregation.getName() + ", row by row (" + numGenes + " genes)");
+
+        return new SymmetricRows() {
+            //projection of the row gene and a row of the termwise similarity (for the maximum), of every thread
+            private final ThreadLocal<float[][]> projections = new ThreadLocal<float[][]>() {
+                @Override
+                protected float[][] initialValue() {
+                    return new float[2][numTerms];
+                }
+            };
+            //reductions of a block of term similarities (for the rest), of every thread
+            private final ThreadLocal<TermBlockReductions> blocks = new ThreadLocal<TermBlockReductions>() {
+                @Override
+                protected TermBlockReductions initialValue() {
+                    return new TermBlockReductions();
+                }
+            };
+
+            @Override
+            public int getRowDimension() {
+                return numGenes;
+            }
+
+            @Override
+            public void getRow(int i, float[] row) {
+                if (byProjection) {
+                    //same projection as geneWiseMaximumByProjection
+                    final float[][] buffer = this.projections.get();
+                    final float[] R_i = buffer[0], S_s = buffer[1];
+                    Arrays.fill(R_i, Float.NEGATIVE_INFINITY);
+                    for (int s : goTermsPerGene[i]) {
+                        termWise.getRow(s, S_s);
+                        for (int t = 0; t < numTerms; t++) {
+                            final float v = S_s[t];
+                            R_i[t] = R_i[t] < v ? v : R_i[t];
+                        }
+                    }
+                    for (int j = 0; j < numGenes; j++) {
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (int t : goTermsPerGene[j]) {
+                            final float v = R_i[t];
+                            max = max < v ? v : max;
+                        }
+                        row[j] = max;
+                    }
+                } else {
+                    //blocks are taken as in the upper triangle (the smallest gene first),
+                    //so every pair is aggregated exactly as in the whole matrix
+                    final TermBlockReductions block = this.blocks.get();
+                    for (int j = 0; j < numGenes; j++) {
+                        if (j < i) {
+                            block.compute(termWise, goTermsPerGene[j], goTermsPerGene[i]);
+                        } else {
+                            block.compute(termWise, goTermsPerGene[i], goTermsPerGene[j]);
+                        }
+                        row[j] = aggregation.aggregate(block);
+                    }
+                }
+            }
+        };
+    }
+
+    //Top k of the gene-wise similarity by the chosen gene aggregation, whose
+    //rows are computed and reduced one by one, never storing the whole matrix
+    protected TopKNeighbours geneWiseSimilarityTopKByAggregation(int ontology, int k) throws IOException, OutOfMemoryError {
+        SymmetricMatrix termWise = this.calculateTermWiseSemanticSimilaritySymmetric(ontology);
+        GeneAggregation[] aggregations = new GeneAggregation[]{this.geneAggregation};
+        final int[][] goTermsPerGene = this.getGOTermsPerGene(ontology, termWise, aggregations);
+        this.logwriter.showMessage("Computing top " + k + " genewise semantic similarity by " + this.geneAggregation.getName() + " (" + goTermsPerGene.length + " genes)");
+
+        TopKNeighbours topK = new TopKNeighbours(goTermsPerGene.length, k);
+        if (this.geneAggregation instanceof MaximumAggregation) {
+            this.geneWiseMaximumByProjection(termWise, goTermsPerGene, null, topK);
+        } else {
+            this.geneWiseAggregations(termWise, goTermsPerGene, aggregations, null, topK);
+        }
+
+        logwriter.log("Completed HSM for " + shortOntologyName[ontology]);
+        System.out.println("Completed HSM for Ontology: " + longOntologyName[ontology]);
+
+        return topK;
+    }
+
+    //Sets the computed genes, and returns the (sorted) indices of the terms
+    //of every one of them, without the dominated ones if the aggregations allow it
+    private int[][] getGOTermsPerGene(int ontology, SymmetricMatrix termWise, GeneAggregation[] aggregations) throws IOException {
+        //terms dominated by another term of the same gene can only be removed for the maximum
+        boolean filterDominated = true;
+        for (GeneAggregation aggregation : aggregations) {
+            filterDominated = filterDominated && aggregation.allowsDominanceFiltering();
+        }
 
         this.logwriter.showMessage("Extracting GO term ids associated to each gene... ");
+        Map<String, int[]> annotatedIdsPerGene = new LinkedHashMap<String, int[]>();
+        for (String gene : this.annotations.getRowIdentifiers()) {
+            Set<Integer> ids = new LinkedHashSet<Integer>();
+            for (String goTerm : this.annotations.getGOTermScoresForProteinId(gene).keySet()) {
+                if (this.ontologyFromGOTerm.containsKey(goTerm) && this.ontologyFromGOTerm.get(goTerm) == ontology) {
+                    //goterm index in HSM matrix.
+                    ids.add(this.indexFromGOTerm.get(goTerm));
+                }
+            }
+            if (!ids.isEmpty()) {
+                int arrayIds[] = new int[ids.size()];
+                int i = 0;
+                for (int val : ids) {
+                    arrayIds[i++] = val;
+                }
+                annotatedIdsPerGene.put(gene, arrayIds);
+            }
+        }
+
+        //only the pairs of terms annotating a common gene are compared
+        DominanceIndex dominance = filterDominated ? new DominanceIndex(termWise, annotatedIdsPerGene.values()) : null;
+
+        Map<String, int[]> goIdsPerGene = new HashMap<String, int[]>();
         int all = 0, removed = 0;
 
-        for (String gene : this.annotations.getRowIdentifiers()) {
+        for (Map.Entry<String, int[]> entry : annotatedIdsPerGene.entrySet()) {
 
             Set<Integer> ids = new HashSet<Integer>();
             Set<Integer> blacklisted = new HashSet<Integer>();
 
-            for (String goTerm : this.annotations.getGOTermScoresForProteinId(gene).keySet()) {
-
-                if (this.ontologyFromGOTerm.containsKey(goTerm) && this.ontologyFromGOTerm.get(goTerm) == ontology) {
-                    //goterm index in HSM matrix.
-                    int id = this.indexFromGOTerm.get(goTerm);
-
-                    for (int id_in : ids) {
-                        if (dominates.get(id).contains(id_in)) {
-                            blacklisted.add(id_in);
-                        } else if (dominates.get(id_in).contains(id)) {
-                            blacklisted.add(id);
-                            break;
-                        }
+            for (int id : entry.getValue()) {
+                for (int id_in : ids) {
+                    if (!filterDominated) {
+                        break;
+                    } else if (dominance.dominates(id, id_in)) {
+                        blacklisted.add(id_in);
+                    } else if (dominance.dominates(id_in, id)) {
+                        blacklisted.add(id);
+                        break;
                     }
-
-                    ids.add(id);
                 }
+
+                ids.add(id);
             }
 
             all += ids.size();
@@ -281,13 +609,15 @@ public abstract class HSM {
                 }
 
                 Arrays.sort(arrayIds);
-                goIdsPerGene.put(gene, arrayIds);
+                goIdsPerGene.put(entry.getKey(), arrayIds);
             }
         }
 
         double perc = (double) removed / (double) all * 100.0;
 
-        this.logwriter.showMessage("Removed " + perc + "% of all associations because of dominancy");
+        if (filterDominated) {
+            this.logwriter.showMessage("Removed " + perc + "% of all associations because of dominancy");
+        }
 
         //filter out all the genes annotated to the desired ontology
         ArrayList<String> selectedGenes = new ArrayList<String>(goIdsPerGene.keySet());
@@ -299,97 +629,149 @@ public abstract class HSM {
         this.computedGenes = new String[NUM_GENES_ONTOLOGY];
         selectedGenes.toArray(this.computedGenes);
 
-        this.logwriter.showMessage("Computing genewise semantic similarity by maximum (" + NUM_GENES_ONTOLOGY + " genes)");
-
-        Matrix result = new Matrix(NUM_GENES_ONTOLOGY, NUM_GENES_ONTOLOGY);
-
-        //which pair of terms annoating the genes is the most similar
+        //indices of the terms of every gene
+        final int[][] goTermsPerGene = new int[NUM_GENES_ONTOLOGY][];
         for (int i = 0; i < NUM_GENES_ONTOLOGY; ++i) {
-            //get genes annotating the first gene
-            final int[] goTerms_i = goIdsPerGene.get(selectedGenes.get(i));
-
-            for (int j = i; j < NUM_GENES_ONTOLOGY; ++j) {
-                //get genes annotating the second gene
-                final int[] goTerms_j = goIdsPerGene.get(selectedGenes.get(j));
-
-                float max = this.matrixMax(termWise.getMatrix(goTerms_i, goTerms_j));
-
-                // set matrix values
-                result.set(i, j, max);
-                result.set(j, i, max);
-            }
+            goTermsPerGene[i] = goIdsPerGene.get(selectedGenes.get(i));
         }
-
-        logwriter.log("Completed HSM for " + shortOntologyName[ontology]);
-        System.out.println("Completed HSM for Ontology: " + longOntologyName[ontology]);
-
-        return result;
+        return goTermsPerGene;
     }
 
-    private Map<Integer, Set<Integer>> computeDominancies(Matrix x) {
-        final int m = x.getRowDimension();
-        final int n = x.getRowDimension();
-
-        Map<Integer, Set<Integer>> dominates = new HashMap<Integer, Set<Integer>>();
-
-        for (int i = 0; i < m; ++i) {
-            if (!dominates.containsKey(i)) {
-                dominates.put(i, new HashSet<Integer>());
-            }
-
-            for (int j = i + 1; j < m; ++j) {
-                if (!dominates.containsKey(j)) {
-                    dominates.put(j, new HashSet<Integer>());
-                }
-
-                boolean greater = true, lesser = true;
-
-                for (int k = 0; k < n; ++k) {
-                    greater = greater && x.get(i, k) >= x.get(j, k);
-                    lesser = lesser && x.get(i, k) < x.get(j, k);
-
-                    if (!greater && !lesser) {
-                        break;
+    /**
+     * Sets result(i,j) to the maximum similarity between the terms of the
+     * genes i and j. For every gene i, the row-wise maximum of its terms is
+     * projected on all the terms (R_i(t) = max{s of i} termWise(s,t)), and the
+     * similarity with the gene j is the maximum of R_i over the terms of j.
+     * Genes are processed by tiles, in parallel, and every thread keeps the
+     * projections of its tile only. If result is null, whole rows are computed
+     * instead, and reduced to their top k.
+     *
+     * @param termWise termwise similarity
+     * @param goTermsPerGene indices of the terms of every gene
+     * @param result symmetric matrix, with as many rows as genes, or null
+     * @param topK neighbours of every gene, if result is null
+     */
+    private void geneWiseMaximumByProjection(final SymmetricMatrix termWise, final int[][] goTermsPerGene, final SymmetricMatrix result, final TopKNeighbours topK) {
+        final int numTerms = termWise.getColumnDimension();
+        final int numGenes = goTermsPerGene.length;
+        final int TILE = 16;
+        final int numTiles = (numGenes + TILE - 1) / TILE;
+
+        Parallel.forRange(0, numTiles, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final float[][] R = new float[TILE][numTerms];
+                final float[] S_s = new float[numTerms];
+                final float[][] rows = result == null ? new float[TILE][numGenes] : null;
+                for (int tile = from; tile < to; tile++) {
+                    final int iStart = tile * TILE, iEnd = Math.min(iStart + TILE, numGenes);
+                    //0. projections of the genes of the tile
+                    for (int i = iStart; i < iEnd; i++) {
+                        final float[] R_i = R[i - iStart];
+                        Arrays.fill(R_i, Float.NEGATIVE_INFINITY);
+                        for (int s : goTermsPerGene[i]) {
+                            termWise.getRow(s, S_s);
+                            for (int t = 0; t < numTerms; t++) {
+                                final float v = S_s[t];
+                                R_i[t] = R_i[t] < v ? v : R_i[t];
+                            }
+                        }
+                    }
+                    //1. maximum over the terms of every other gene
+                    for (int j = result == null ? 0 : iStart; j < numGenes; j++) {
+                        final int[] goTerms_j = goTermsPerGene[j];
+                        for (int i = iStart; i < iEnd && (result == null || i <= j); i++) {
+                            final float[] R_i = R[i - iStart];
+                            float max = Float.NEGATIVE_INFINITY;
+                            for (int t : goTerms_j) {
+                                final float v = R_i[t];
+                                max = max < v ? v : max;
+                            }
+                            if (result == null) {
+                                rows[i - iStart][j] = max;
+                            } else {
+                                result.set(i, j, max);
+                            }
+                        }
+                    }
+                    for (int i = iStart; i < iEnd && result == null; i++) {
+                        topK.offerRow(i, rows[i - iStart], null);
                     }
                 }
+            }
+        });
+    }
 
-                if (greater) {
-                    dominates.get(i).add(j);
-                }
-                if (lesser) {
-                    dominates.get(j).add(i);
+    /**
+     * Sets results[a](i,j) to the aggregation a of the similarities between
+     * the terms of the genes i and j. The reductions of every block of term
+     * similarities are computed once, and shared by all the aggregations.
+     * Rows of genes are processed in parallel. If results is null, whole rows
+     * of the (only) aggregation are computed instead, and reduced to their
+     * top k.
+     *
+     * @param termWise termwise similarity
+     * @param goTermsPerGene indices of the terms of every gene
+     * @param aggregations aggregations to compute
+     * @param results symmetric matrices, with as many rows as genes, or null
+     * @param topK neighbours of every gene, if results is null
+     */
+    private void geneWiseAggregations(final SymmetricMatrix termWise, final int[][] goTermsPerGene,
+            final GeneAggregation[] aggregations, final SymmetricMatrix[] results, final TopKNeighbours topK) {
+        final int numGenes = goTermsPerGene.length;
+
+        Parallel.forRange(0, numGenes, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final TermBlockReductions block = new TermBlockReductions();
+                final float[] row = results == null ? new float[numGenes] : null;
+                for (int i = from; i < to; i++) {
+                    if (results == null) {
+                        for (int j = 0; j < numGenes; j++) {
+                            block.compute(termWise, goTermsPerGene[i], goTermsPerGene[j]);
+                            row[j] = aggregations[0].aggregate(block);
+                        }
+                        topK.offerRow(i, row, null);
+                    } else {
+                        for (int j = i; j < numGenes; j++) {
+                            block.compute(termWise, goTermsPerGene[i], goTermsPerGene[j]);
+                            for (int a = 0; a < aggregations.length; a++) {
+                                results[a].set(i, j, aggregations[a].aggregate(block));
+                            }
+                        }
+                    }
                 }
             }
-        }
-
-        /*
-         int k = 0;
-         for (int i = 0; i < m; ++i) {
-         if (dominates.get(i).size() > 10) {
-         ++k;
-         System.err.println("Row " + i + " dominates " + dominates.get(i).size());
-         }
-         } */
-        return dominates;
+        });
     }
 
-    protected Matrix calculateGraphGeneWiseSemanticSimilarity(int ontology, GraphSimilarity measure) throws IOException, OutOfMemoryError {
+    //Sets the computed genes, and returns the terms of each of them (with their ancestors) as bitsets
+    private long[][] graphTermBits(int ontology, GraphSimilarity measure) {
         System.err.println("# of genes: " + this.genes.length);
-        // 1.- we get the set of GO terms for every gene
-        Map<String, Set<GOTerm>> goTermsPerGene = new HashMap<String, Set<GOTerm>>();
+        // 1.- we get the set of GO terms for every gene, as nodes of the graph
+        OntologyGraph graph = null;
+        Map<String, int[]> goTermsPerGene = new HashMap<String, int[]>();
         for (String gene : this.annotations.getRowIdentifiers()) {
 //        for (int g = 0; g < this.genes.length; g++) {
             //          String gene = genes[g];
-            Set<GOTerm> added = new HashSet<GOTerm>();
+            BitSet added = new BitSet();
             for (String go : this.annotations.getGOTermScoresForProteinId(gene).keySet()) {
                 //for (String go : this.goIdsByGene[g]) {
                 if (ontology == getOntologyFromGOTerm(go)) {
-                    added.addAll(goTermFromID.get(go).getAncestors());
+                    GOTerm term = goTermFromID.get(go);
+                    graph = term.getGraph();
+                    for (int ancestor : graph.getAncestors(term.getIndex())) {
+                        added.set(ancestor);
+                    }
                 }
             }
 
             if (!added.isEmpty()) {
-                goTermsPerGene.put(gene, added);
+                int[] nodes = new int[added.cardinality()];
+                for (int k = 0, node = added.nextSetBit(0); node >= 0; node = added.nextSetBit(node + 1)) {
+                    nodes[k++] = node;
+                }
+                goTermsPerGene.put(gene, nodes);
             }
         }
 
@@ -403,23 +785,136 @@ public abstract class HSM {
         // we set the maximum number of annotations in case it is needed
         measure.setMaxAnnotations(this.maxAnnotationNumber[ontology]);
 
-        // 3.- for each pair of genes, we compute the similarity as the 
+        // 3.- the terms of every gene as a bitset, one bit per term used
+        final int[] bitOfNode = new int[graph != null ? graph.size() : 0];
+        Arrays.fill(bitOfNode, -1);
+        final int[] nodeOfBit = new int[bitOfNode.length];
+        int numBits = 0;
+        for (String gene : this.computedGenes) {
+            for (int node : goTermsPerGene.get(gene)) {
+                if (bitOfNode[node] < 0) {
+                    bitOfNode[node] = numBits;
+                    nodeOfBit[numBits++] = node;
+                }
+            }
+        }
+        measure.setTerms(numBits > 0 ? graph.getTerms(Arrays.copyOf(nodeOfBit, numBits)) : new GOTerm[0]);
+        final int numWords = (numBits + 63) >>> 6;
+        final long[][] termBits = new long[NUM_GENES_ONTOLOGY][];
+        for (int i = 0; i < NUM_GENES_ONTOLOGY; ++i) {
+            long[] bits = new long[numWords];
+            for (int node : goTermsPerGene.get(computedGenes[i])) {
+                final int bit = bitOfNode[node];
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            }
+            termBits[i] = bits;
+        }
+        return termBits;
+    }
+
+    protected Matrix calculateGraphGeneWiseSemanticSimilarity(int ontology, GraphSimilarity measure) throws IOException, OutOfMemoryError {
+        return this.calculateGraphGeneWiseSemanticSimilaritySymmetric(ontology, measure).toMatrix();
+    }
+
+    protected SymmetricMatrix calculateGraphGeneWiseSemanticSimilaritySymmetric(int ontology, final GraphSimilarity measure) throws IOException, OutOfMemoryError {
+        final long[][] termBits = this.graphTermBits(ontology, measure);
+        final int NUM_GENES_ONTOLOGY = termBits.length;
+
+        // 4.- for each pair of genes, we compute the similarity as the 
         // Jaccard coefficient of the set of associated GO terms to the
         // genes
-        Matrix result = new Matrix(NUM_GENES_ONTOLOGY, NUM_GENES_ONTOLOGY);
-        for (int i = 0; i < NUM_GENES_ONTOLOGY; ++i) {
-            Set<GOTerm> terms_i = goTermsPerGene.get(computedGenes[i]);
-            for (int j = i + 1; j < NUM_GENES_ONTOLOGY; ++j) {
-                Set<GOTerm> terms_j = goTermsPerGene.get(computedGenes[j]);
+        SymmetricMatrix result = new SymmetricMatrix(NUM_GENES_ONTOLOGY);
+        this.fillSymmetric(result, NUM_GENES_ONTOLOGY, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                if (i == j) {
+                    return 1.0f; // self-similarity is 1.0 for any gene
+                }
+                return measure.similarity(termBits[i], termBits[j]);
+            }
+        });
+
+        logwriter.showMessage("Completed HSM for " + shortOntologyName[ontology]);
+        return result;
+    }
+
+    //Rows of the gene-wise similarity of a graph-based measure, computed on
+    //demand from the bitsets of the genes (with the same pairs as fillSymmetric)
+    protected SymmetricRows calculateGraphGeneWiseSemanticSimilarityRows(int ontology, final GraphSimilarity measure) throws IOException, OutOfMemoryError {
+        final long[][] termBits = this.graphTermBits(ontology, measure);
+        final int NUM_GENES_ONTOLOGY = termBits.length;
+        this.logwriter.showMessage("Computing genewise semantic similarity row by row (" + NUM_GENES_ONTOLOGY + " genes)");
+
+        return new SymmetricRows() {
+            @Override
+            public int getRowDimension() {
+                return NUM_GENES_ONTOLOGY;
+            }
+
+            @Override
+            public void getRow(int i, float[] row) {
+                for (int j = 0; j < NUM_GENES_ONTOLOGY; ++j) {
+                    if (i == j) {
+                        row[j] = 1.0f; // self-similarity is 1.0 for any gene
+                    } else if (j < i) {
+                        row[j] = measure.similarity(termBits[j], termBits[i]);
+                    } else {
+                        row[j] = measure.similarity(termBits[i], termBits[j]);
+                    }
+                }
+            }
+        };
+    }
 
-                float sim = measure.similarity(terms_i, terms_j);
+    protected SparseMatrix calculateApproximateGraphGeneWiseSemanticSimilarity(int ontology, final GraphSimilarity measure, final float threshold) throws IOException, OutOfMemoryError {
+        final long[][] termBits = this.graphTermBits(ontology, measure);
+        final int NUM_GENES_ONTOLOGY = termBits.length;
 
-                result.set(i, j, sim);
-                result.set(j, i, sim);
+        // 1.- candidate pairs of genes, by MinHash signatures and LSH
+        MinHashLSH lsh = new MinHashLSH(threshold, APPROXIMATE_SEED);
+        this.logwriter.showMessage("Computing approximate genewise semantic similarity (" + NUM_GENES_ONTOLOGY + " genes, "
+                + lsh.getNumBands() + " bands of " + lsh.getRowsPerBand() + " hashes, threshold " + threshold + ")");
+        final SparseMatrix result = lsh.similarPairs(termBits, measure.getTermWeights());
+        this.logwriter.showMessage("Found " + result.getNumNonZeros() + " pairs of genes");
 
+        // 2.- recall against the exact similarity, for the pairs of a sample of genes
+        final int[] genes = new int[NUM_GENES_ONTOLOGY];
+        for (int i = 0; i < NUM_GENES_ONTOLOGY; ++i) {
+            genes[i] = i;
+        }
+        Random random = new Random(APPROXIMATE_SEED);
+        final int[] sample = new int[Math.min(RECALL_SAMPLE_SIZE, NUM_GENES_ONTOLOGY)];
+        for (int s = 0; s < sample.length; ++s) {
+            // partial shuffle, genes are sampled without replacement
+            int r = s + random.nextInt(NUM_GENES_ONTOLOGY - s);
+            sample[s] = genes[r];
+            genes[r] = genes[s];
+            genes[s] = sample[s];
+        }
+        final long[] exactPairs = new long[sample.length], foundPairs = new long[sample.length];
+        Parallel.forRange(0, sample.length, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int s = from; s < to; s++) {
+                    final int i = sample[s];
+                    for (int j = 0; j < NUM_GENES_ONTOLOGY; ++j) {
+                        if (j != i && measure.similarity(termBits[i], termBits[j]) >= threshold) {
+                            exactPairs[s]++;
+                            if (result.get(Math.min(i, j), Math.max(i, j)) > 0.0f) {
+                                foundPairs[s]++;
+                            }
+                        }
+                    }
+                }
             }
-            result.set(i, i, 1.0f); // self-similarity is 1.0 for any gene
+        });
+        long exact = 0, found = 0;
+        for (int s = 0; s < sample.length; ++s) {
+            exact += exactPairs[s];
+            found += foundPairs[s];
         }
+        double recall = exact > 0 ? (double) found / (double) exact * 100.0 : 100.0;
+        this.logwriter.showMessage("Recall on a sample of " + sample.length + " genes: " + recall + "% (" + found + " of " + exact + " pairs)");
 
         logwriter.showMessage("Completed HSM for " + shortOntologyName[ontology]);
         return result;
@@ -17,6 +17,9 @@ package HSM;
 import GOtree.Assignment;
 import GOtree.GOTerm;
 import Jama.Matrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import util.TinyLogger;
 
@@ -33,50 +36,78 @@ public class Jiang extends HSM {
 
     @Override
     public Matrix calculateGeneWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
-        return super.geneWiseSimilarityByMaximum(ontology);
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityByAggregation(ontology);
+    }
+
+    @Override
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityRowsByAggregation(ontology);
+    }
+
+    @Override
+    public TopKNeighbours calculateGeneWiseSemanticSimilarityTopK(int ontology, int k) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityTopKByAggregation(ontology, k);
     }
 
     @Override
     public Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateTermWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(final int ontology) throws IOException, OutOfMemoryError {
         assert (ontology >= 0 && ontology < 3);
 
         float M = Float.NEGATIVE_INFINITY; //getting M
 
         final int N = numGOtermsPerOntology[ontology];
-        Matrix result = new Matrix(N, N);
+        final SymmetricMatrix result = new SymmetricMatrix(N);
+        final AncestorIndex index = getAncestorIndex(ontology);
 
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                return 0.0f - (float) Math.log(lowestCommonAncestor(index, i, j, ontology));
+            }
+        });
         for (int i = 0; i < N; i++) {
             for (int j = i; j < N; j++) {
-                float dJiang = 0.0f - (float) Math.log(lowestCommonAncestor(matrixAxis[ontology][i].getAncestors(), matrixAxis[ontology][j].getAncestors(), ontology));
-                result.set(i, j, dJiang);
-                result.set(j, i, dJiang);
-                M = Math.max(M, dJiang);
+                M = Math.max(M, result.get(i, j));
             }
         }
         //Jiang normalisation:
-        float[] normalizedDiagonal = new float[N];
+        final float[] normalizedDiagonal = new float[N];
         final float invM = 1.0f / M;
         for (int i = 0; i < N; i++) {
             normalizedDiagonal[i] = result.get(i, i) * invM;
         }
 
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                //set and calculate the Jiang value
+                return (-2.0f * (result.get(i, j) * invM) + normalizedDiagonal[i] + normalizedDiagonal[j]);
+            }
+        });
         float maxJiang = Float.NEGATIVE_INFINITY;
         for (int i = 0; i < N; i++) {
             for (int j = i; j < N; j++) {
-                //set and calculate the Jiang value
-                float value = (-2.0f * (result.get(i, j) * invM) + normalizedDiagonal[i] + normalizedDiagonal[j]);
-                result.set(i, j, value);
-                result.set(j, i, value);
-                maxJiang = Math.max(maxJiang, value);
+                maxJiang = Math.max(maxJiang, result.get(i, j));
             }
         }
 
-        for (int i = 0; i < N; i++) {
-            for (int j = i; j < N; j++) {
-                result.set(i, j, 1.0f - (result.get(i, j) / maxJiang)); //Jiang finishing normalisation
-                result.set(j, i, result.get(i, j));
+        final float finalMaxJiang = maxJiang;
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                return 1.0f - (result.get(i, j) / finalMaxJiang); //Jiang finishing normalisation
             }
-        }
+        });
 
         logwriter.log("Completed HSM for " + shortOntologyName[ontology]);
         System.out.println("Completed Jiang for Ontology : " + longOntologyName[ontology]);
@@ -17,6 +17,9 @@ package HSM;
 import GOtree.Assignment;
 import GOtree.GOTerm;
 import Jama.Matrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import util.TinyLogger;
 
@@ -33,25 +36,49 @@ public class Lin extends HSM {
 
     @Override
     public Matrix calculateGeneWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
-        return super.geneWiseSimilarityByMaximum(ontology);
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityByAggregation(ontology);
+    }
+
+    @Override
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityRowsByAggregation(ontology);
+    }
+
+    @Override
+    public TopKNeighbours calculateGeneWiseSemanticSimilarityTopK(int ontology, int k) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityTopKByAggregation(ontology, k);
     }
 
     @Override
     public Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateTermWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(final int ontology) throws IOException, OutOfMemoryError {
 
         assert (ontology >= 0 && ontology < 3);
 
         float M = Float.NEGATIVE_INFINITY; //getting M
 
         final int N = numGOtermsPerOntology[ontology];
-        Matrix result = new Matrix(N, N);
+        final SymmetricMatrix result = new SymmetricMatrix(N);
+        final AncestorIndex index = getAncestorIndex(ontology);
 
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                return 0.0f - (float) Math.log(lowestCommonAncestor(index, i, j, ontology));
+            }
+        });
         for (int i = 0; i < N; i++) {
             for (int j = i; j < N; j++) {
-                float linTop = 0.0f - (float) Math.log(lowestCommonAncestor(matrixAxis[ontology][i].getAncestors(), matrixAxis[ontology][j].getAncestors(), ontology));
-                result.set(i, j, linTop);
-                result.set(j, i, linTop);
-
+                float linTop = result.get(i, j);
                 if (linTop > M && linTop != 0) {
                     M = linTop; //get largest value for normalisation
                 }
@@ -59,22 +86,21 @@ public class Lin extends HSM {
         }
 
         //Lin normalisation:
-        float [] normalizedDiagonal = new float [N];
+        final float [] normalizedDiagonal = new float [N];
         final float invM = 1.0f / M;
         for (int i = 0; i < N; i++) {
             normalizedDiagonal[i] = result.get(i, i) * invM;
         }
 
-        for (int i = 0; i < N; i++) {
-            for (int j = i; j < N; j++) {
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
                 //create the bottom of the lin equation using the extracted values and a 0.001 to prevent a division by 0
                 float linBottom = normalizedDiagonal[i] + normalizedDiagonal[j] + 0.001f;
                 //create the top of the lin equation, divide it by the bottom and save the resultant lin value
-                float val = 2.0f * (result.get(i, j) * invM) / linBottom;
-                result.set(i, j, val);
-                result.set(j, i, val);
+                return 2.0f * (result.get(i, j) * invM) / linBottom;
             }
-        }
+        });
 
         logwriter.log("Completed HSM for " + shortOntologyName[ontology]);
         System.out.println("Completed Lin for Ontology : Biological Process" + longOntologyName[ontology]);
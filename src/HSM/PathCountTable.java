@@ -0,0 +1,221 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM;
+
+import GOtree.GOTerm;
+import GOtree.OntologyGraph;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Number of paths from every term of an ontology to each of its ancestors,
+ * as used by simGraSM. Counts are computed by dynamic programming over the
+ * DAG, visiting the terms in the topological order of the OntologyGraph
+ * (every term after all of its parents), and are kept in an open addressing
+ * hash table of primitive longs, keyed by the numeric ids of the term and the
+ * ancestor.
+ *
+ * Paths are the ones the former recursive enumeration found: from every
+ * node, the relations are followed in order and the search stops at the
+ * first relation which either has the ancestor as a direct parent (which
+ * closes one path) or has no parents at all. Paths going through the same
+ * nodes with different relations are counted once.
+ *
+ * The table is immutable once built, so it can be shared among threads.
+ */
+class PathCountTable {
+
+    private static final long EMPTY = -1L;
+    private long[] keys;
+    private long[] counts;
+    private int size;
+
+    /**
+     * @param terms terms of the ontology (their ancestors are included too)
+     * @param relations relations followed by the paths, in order
+     */
+    PathCountTable(GOTerm[] terms, String[] relations) {
+        this.keys = new long[1024];
+        this.counts = new long[1024];
+        Arrays.fill(this.keys, EMPTY);
+        this.size = 0;
+        if (terms.length == 0) {
+            return;
+        }
+
+        final OntologyGraph graph = terms[0].getGraph();
+        final int[] masks = new int[relations.length];
+        for (int r = 0; r < relations.length; r++) {
+            masks[r] = graph.getRelationMask(relations[r]);
+        }
+        BitSet needed = new BitSet(graph.size());
+        for (GOTerm term : terms) {
+            for (int ancestor : graph.getAncestors(term.getIndex())) {
+                needed.set(ancestor);
+            }
+        }
+        final int[] mark = new int[graph.size()];
+        Arrays.fill(mark, -1);
+        int stamp = 0;
+        BitSet done = new BitSet(graph.size());
+        for (int node : graph.getTopologicalOrder()) {
+            if (needed.get(node)) {
+                stamp = this.computePathCounts(graph, node, masks, mark, stamp);
+                done.set(node);
+            }
+        }
+        //terms in a cycle (or below one): every term after the parents which
+        //are not on its way back to itself, as the recursive enumeration did
+        if (!graph.isAcyclic()) {
+            for (int node = needed.nextSetBit(0); node >= 0; node = needed.nextSetBit(node + 1)) {
+                stamp = this.computeAfterParents(graph, node, masks, mark, stamp, done);
+            }
+        }
+    }
+
+    private int computeAfterParents(OntologyGraph graph, int node, int[] masks, int[] mark, int stamp, BitSet done) {
+        if (done.get(node)) {
+            return stamp;
+        }
+        done.set(node);
+        for (int mask : masks) {
+            for (int parent : graph.getParents(node, mask)) {
+                stamp = this.computeAfterParents(graph, parent, masks, mark, stamp, done);
+            }
+        }
+        return this.computePathCounts(graph, node, masks, mark, stamp);
+    }
+
+    /**
+     * Number of paths between two terms, whichever is the ancestor of the
+     * other (0 if none is an ancestor of the other, or if they are the same).
+     * If both are ancestors of each other (in a cycle), the larger of both
+     * counts, so the count of a pair does not depend on its order.
+     */
+    long getNumPaths(GOTerm t1, GOTerm t2) {
+        return this.getNumPaths(t1.getNumericId(), t2.getNumericId());
+    }
+
+    /**
+     * Same as above, with the numeric ids of the terms.
+     */
+    long getNumPaths(int t1, int t2) {
+        return Math.max(this.get(t1, t2), this.get(t2, t1));
+    }
+
+    //fills the counts of the node to all of its ancestors, once its parents
+    //are done (mark[p] == stamp tells the parents already explored), and
+    //returns the next stamp
+    private int computePathCounts(OntologyGraph graph, int node, int[] masks, int[] mark, int stamp) {
+        final int[][] parentsByRelation = new int[masks.length][];
+        for (int r = 0; r < masks.length; r++) {
+            parentsByRelation[r] = graph.getParents(node, masks[r]);
+        }
+        final int[] next = new int[graph.getParents(node).length];
+
+        final int termId = graph.getTerm(node).getNumericId();
+        for (int ancestor : graph.getAncestors(node)) {
+            if (ancestor == node) {
+                continue;
+            }
+            //0. parents explored by the search from this term
+            long numPaths = 0;
+            int numNext = 0;
+            stamp++;
+            for (int[] parents : parentsByRelation) {
+                if (contains(parents, ancestor)) {
+                    numPaths = 1;
+                    break;
+                } else if (parents.length == 0) {
+                    break;
+                }
+                for (int parent : parents) {
+                    if (mark[parent] != stamp) {
+                        mark[parent] = stamp;
+                        next[numNext++] = parent;
+                    }
+                }
+            }
+            //1. paths from every one of them
+            final int ancestorId = graph.getTerm(ancestor).getNumericId();
+            for (int k = 0; k < numNext; k++) {
+                numPaths += this.get(graph.getTerm(next[k]).getNumericId(), ancestorId);
+            }
+            if (numPaths > 0) {
+                this.put(termId, ancestorId, numPaths);
+            }
+        }
+        return stamp;
+    }
+
+    private static boolean contains(int[] nodes, int node) {
+        for (int v : nodes) {
+            if (v == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long key(int term, int ancestor) {
+        return ((long) term << 32) | (ancestor & 0xffffffffL);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private long get(int term, int ancestor) {
+        final long k = key(term, ancestor);
+        final int mask = this.keys.length - 1;
+        for (int s = slot(k, mask);; s = (s + 1) & mask) {
+            if (this.keys[s] == k) {
+                return this.counts[s];
+            } else if (this.keys[s] == EMPTY) {
+                return 0;
+            }
+        }
+    }
+
+    private void put(int term, int ancestor, long count) {
+        if (2 * (this.size + 1) > this.keys.length) {
+            long[] oldKeys = this.keys, oldCounts = this.counts;
+            this.keys = new long[2 * oldKeys.length];
+            this.counts = new long[2 * oldKeys.length];
+            Arrays.fill(this.keys, EMPTY);
+            this.size = 0;
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldKeys[s] != EMPTY) {
+                    this.insert(oldKeys[s], oldCounts[s]);
+                }
+            }
+        }
+        this.insert(key(term, ancestor), count);
+    }
+
+    private void insert(long k, long count) {
+        final int mask = this.keys.length - 1;
+        int s = slot(k, mask);
+        while (this.keys[s] != EMPTY && this.keys[s] != k) {
+            s = (s + 1) & mask;
+        }
+        if (this.keys[s] == EMPTY) {
+            this.size++;
+        }
+        this.keys[s] = k;
+        this.counts[s] = count;
+    }
+}
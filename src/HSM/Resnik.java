@@ -17,6 +17,9 @@ package HSM;
 import GOtree.Assignment;
 import GOtree.GOTerm;
 import Jama.Matrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import util.TinyLogger;
 
@@ -33,21 +36,26 @@ public class Resnik extends HSM {
 
     @Override
     public Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateTermWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(final int ontology) throws IOException, OutOfMemoryError {
         assert (ontology >= 0 && ontology < 3);
         final int N = numGOtermsPerOntology[ontology];
         
         super.logwriter.showMessage("Size of the semsim matrix: " + N);
-        super.logwriter.showMessage("Size of the semsim matrix (in MBs): " + N*N*4.0/(1024*1024));
+        super.logwriter.showMessage("Size of the semsim matrix (in MBs): " + N*(N+1)*2.0/(1024*1024));
         
-        Matrix result = new Matrix(N, N);
+        SymmetricMatrix result = new SymmetricMatrix(N);
+        final AncestorIndex index = getAncestorIndex(ontology);
 
-        for (int i = 0; i < N; i++) {
-            for (int j = i; j < N; j++) {
-                float res = 0.0f - (float) Math.log(lowestCommonAncestor(matrixAxis[ontology][i].getAncestors(), matrixAxis[ontology][j].getAncestors(), ontology));
-                result.set(i, j, res);
-                result.set(j, i, res);
+        fillSymmetric(result, N, new TermPairFunction() {
+            @Override
+            public float compute(int i, int j) {
+                return 0.0f - (float) Math.log(lowestCommonAncestor(index, i, j, ontology));
             }
-        }
+        });
 
         logwriter.showTimedMessage("Completed Resnik for Ontology " + longOntologyName[ontology]);
 
@@ -56,6 +64,21 @@ public class Resnik extends HSM {
 
     @Override
     public Matrix calculateGeneWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
-        return super.geneWiseSimilarityByMaximum(ontology);
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityByAggregation(ontology);
+    }
+
+    @Override
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityRowsByAggregation(ontology);
+    }
+
+    @Override
+    public TopKNeighbours calculateGeneWiseSemanticSimilarityTopK(int ontology, int k) throws IOException, OutOfMemoryError {
+        return super.geneWiseSimilarityTopKByAggregation(ontology, k);
     }
 }
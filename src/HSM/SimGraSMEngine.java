@@ -0,0 +1,184 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package HSM;
+
+import GOtree.Assignment;
+import GOtree.GOTerm;
+import GOtree.OntologyGraph;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * simGraSM similarity between the terms of an ontology. Every ancestor gets a
+ * rank, by decreasing IC (ties by numeric id), and the ancestors of every term
+ * are stored once as a sorted array of ranks. The common ancestors of two
+ * terms, already sorted by IC, are then the merge of both arrays, and the
+ * disjunctive ones are found with the path counts of a PathCountTable.
+ *
+ * Memory is linear in the size of the ancestor relation. The engine is
+ * immutable once built, and the pair computation only uses per-thread
+ * buffers, so it can be called from several threads.
+ */
+class SimGraSMEngine {
+
+    /**
+     * Ancestors of the term i are ranks[start[i] .. start[i+1]-1], sorted
+     */
+    private final int[] start;
+    private final int[] ranks;
+    /**
+     * IC and numeric id of the ancestor of every rank
+     */
+    private final float[] icByRank;
+    private final int[] idByRank;
+    /**
+     * Numeric id of every term
+     */
+    private final int[] termIds;
+    private final PathCountTable paths;
+    /**
+     * Buffers for the common ancestors and the disjunctive ones
+     */
+    private final ThreadLocal<int[][]> buffers;
+
+    /**
+     * @param terms terms of the ontology, in the order of the HSM matrix
+     * @param annotations annotations used to count the genes of every term
+     * @param numAnnotationDAG maximum number of annotations in the ontology
+     * @param paths number of paths between the terms of the ontology
+     */
+    SimGraSMEngine(GOTerm[] terms, Assignment annotations, double numAnnotationDAG, PathCountTable paths) {
+        this.paths = paths;
+
+        //0. ranks of the ancestors, by decreasing IC
+        final OntologyGraph graph = terms.length > 0 ? terms[0].getGraph() : null;
+        final int[][] ancestorsOfTerm = new int[terms.length][];
+        final int[] rankOfNode = new int[graph != null ? graph.size() : 0];
+        Arrays.fill(rankOfNode, -1);
+        final int[] ancestors = new int[rankOfNode.length];
+        int numAncestors = 0;
+        for (int i = 0; i < terms.length; i++) {
+            ancestorsOfTerm[i] = graph.getAncestors(terms[i].getIndex());
+            for (int ancestor : ancestorsOfTerm[i]) {
+                if (rankOfNode[ancestor] < 0) {
+                    rankOfNode[ancestor] = 0;
+                    ancestors[numAncestors++] = ancestor;
+                }
+            }
+        }
+        final float invNumAnnotationDAG = 1.0f / (float) numAnnotationDAG;
+        final float[] ic = new float[numAncestors];
+        final int[] ids = new int[numAncestors];
+        Integer[] order = new Integer[numAncestors];
+        for (int a = 0; a < numAncestors; a++) {
+            final GOTerm ancestor = graph.getTerm(ancestors[a]);
+            ic[a] = annotations.countNumberOfGenesForGOTerm(ancestor.getGOid()) * invNumAnnotationDAG;
+            ids[a] = ancestor.getNumericId();
+            order[a] = a;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (ic[a] != ic[b]) {
+                    return ic[a] > ic[b] ? -1 : 1;
+                }
+                return ids[a] < ids[b] ? -1 : (ids[a] == ids[b] ? 0 : 1);
+            }
+        });
+        this.icByRank = new float[numAncestors];
+        this.idByRank = new int[numAncestors];
+        for (int r = 0; r < numAncestors; r++) {
+            rankOfNode[ancestors[order[r]]] = r;
+            this.icByRank[r] = ic[order[r]];
+            this.idByRank[r] = ids[order[r]];
+        }
+
+        //1. sorted ranks of the ancestors of every term
+        this.start = new int[terms.length + 1];
+        this.termIds = new int[terms.length];
+        int maxAncestors = 0;
+        for (int i = 0; i < terms.length; i++) {
+            this.start[i + 1] = this.start[i] + ancestorsOfTerm[i].length;
+            this.termIds[i] = terms[i].getNumericId();
+            maxAncestors = Math.max(maxAncestors, ancestorsOfTerm[i].length);
+        }
+        this.ranks = new int[this.start[terms.length]];
+        for (int i = 0; i < terms.length; i++) {
+            int k = this.start[i];
+            for (int ancestor : ancestorsOfTerm[i]) {
+                this.ranks[k++] = rankOfNode[ancestor];
+            }
+            Arrays.sort(this.ranks, this.start[i], this.start[i + 1]);
+        }
+
+        final int bufferSize = maxAncestors;
+        this.buffers = new ThreadLocal<int[][]>() {
+            @Override
+            protected int[][] initialValue() {
+                return new int[][]{new int[bufferSize], new int[bufferSize]};
+            }
+        };
+    }
+
+    /**
+     * Shared IC of the common ancestors of the terms i and j, divided by the
+     * number of their disjunctive common ancestors.
+     */
+    float similarity(int i, int j) {
+        final int[][] buffer = this.buffers.get();
+        final int[] common = buffer[0];
+        final int[] disjoint = buffer[1];
+
+        //0. common ancestors, sorted by decreasing IC
+        int numCommon = 0;
+        int a = this.start[i], b = this.start[j];
+        final int aEnd = this.start[i + 1], bEnd = this.start[j + 1];
+        while (a < aEnd && b < bEnd) {
+            if (this.ranks[a] < this.ranks[b]) {
+                a++;
+            } else if (this.ranks[a] > this.ranks[b]) {
+                b++;
+            } else {
+                common[numCommon++] = this.ranks[a];
+                a++;
+                b++;
+            }
+        }
+
+        //1. the disjunctive ones, greedily in that order
+        final int c1 = this.termIds[i], c2 = this.termIds[j];
+        int numDisjoint = 0;
+        float shared = 0.0f;
+        for (int k = 0; k < numCommon; k++) {
+            final int anc = this.idByRank[common[k]];
+            shared += this.icByRank[common[k]];
+            boolean isDisj = true;
+            for (int d = 0; d < numDisjoint && isDisj; d++) {
+                isDisj = this.disjAnc(c1, anc, disjoint[d]) || this.disjAnc(c2, anc, disjoint[d]);
+            }
+            if (isDisj) {
+                disjoint[numDisjoint++] = anc;
+            }
+        }
+        return shared / (float) numDisjoint;
+    }
+
+    private boolean disjAnc(int c, int a1, int a2) {
+        long nPaths = this.paths.getNumPaths(a1, a2);
+        long nPaths1 = this.paths.getNumPaths(a1, c);
+        long nPaths2 = this.paths.getNumPaths(a2, c);
+        return nPaths1 >= nPaths + nPaths2;
+    }
+}
@@ -18,6 +18,9 @@ import GOtree.Assignment;
 import GOtree.GOTerm;
 import HSM.GraphSimilarities.SimGICSimilarity;
 import Jama.Matrix;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
 import java.io.IOException;
 import util.TinyLogger;
 
@@ -36,11 +39,31 @@ public class simGIC extends HSM {
 
     @Override
     public Matrix calculateGeneWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
-        return super.calculateGraphGeneWiseSemanticSimilarity(ontology, new SimGICSimilarity(annotations));
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return super.calculateGraphGeneWiseSemanticSimilaritySymmetric(ontology, new SimGICSimilarity(annotations));
+    }
+
+    @Override
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return super.calculateGraphGeneWiseSemanticSimilarityRows(ontology, new SimGICSimilarity(annotations));
+    }
+
+    @Override
+    public SparseMatrix calculateApproximateGeneWiseSemanticSimilarity(int ontology, float threshold) throws IOException, OutOfMemoryError {
+        return super.calculateApproximateGraphGeneWiseSemanticSimilarity(ontology, new SimGICSimilarity(annotations), threshold);
     }
 
     @Override
     public Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateTermWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 }
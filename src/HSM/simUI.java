@@ -19,6 +19,9 @@ import GOtree.GOTerm;
 import HSM.GraphSimilarities.GraphSimilarity;
 import HSM.GraphSimilarities.SimUISimilarity;
 import Jama.Matrix;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
@@ -39,11 +42,31 @@ public class simUI extends HSM {
 
     @Override
     public Matrix calculateGeneWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
-        return super.calculateGraphGeneWiseSemanticSimilarity(ontology, new SimUISimilarity(annotations));
+        return this.calculateGeneWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateGeneWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
+        return super.calculateGraphGeneWiseSemanticSimilaritySymmetric(ontology, new SimUISimilarity(annotations));
+    }
+
+    @Override
+    public SymmetricRows calculateGeneWiseSemanticSimilarityRows(int ontology) throws IOException, OutOfMemoryError {
+        return super.calculateGraphGeneWiseSemanticSimilarityRows(ontology, new SimUISimilarity(annotations));
+    }
+
+    @Override
+    public SparseMatrix calculateApproximateGeneWiseSemanticSimilarity(int ontology, float threshold) throws IOException, OutOfMemoryError {
+        return super.calculateApproximateGraphGeneWiseSemanticSimilarity(ontology, new SimUISimilarity(annotations), threshold);
     }
 
     @Override
     public Matrix calculateTermWiseSemanticSimilarity(int ontology) throws IOException, OutOfMemoryError {
+        return this.calculateTermWiseSemanticSimilaritySymmetric(ontology).toMatrix();
+    }
+
+    @Override
+    public SymmetricMatrix calculateTermWiseSemanticSimilaritySymmetric(int ontology) throws IOException, OutOfMemoryError {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 }
@@ -14,6 +14,8 @@ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
  */
 package ISM;
 
+import ISM_ImplementationStrategies.ISM_validImplementation;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import org.apache.commons.cli.CommandLine;
@@ -64,6 +66,14 @@ public class ConsoleParameterValidator extends ParameterValidator {
         paramOptions.addOption("weightedJaccard", true, "Select whether to weight the Jaccard Index for genewise ISM with the information content");
         paramOptions.addOption("useUniProtIds", true, "Select whether to use UniProtKB accession number instead of human-readable gene ids (has only effect in genewise calculations)");
         paramOptions.addOption("matrixStyle", true, "Select whether to print the file in matrix style (m) in triplet style (t) or both files (b)");
+        paramOptions.addOption("walkEngine", true, "Select how the ISM random walk is computed: 'iterative' (power iteration, default), 'topological' (exact, single pass over the DAG) or 'leaves' (exact, only the rows of the leafs, in parallel)");
+        paramOptions.addOption("threads", true, "Enter the number of threads used in the matrix computations (by default, the number of available processors)");
+        paramOptions.addOption("goCacheDir", true, "Enter a directory to keep binary snapshots of the parsed Gene Ontology there, which are read instead of the OBO file when they are up to date (and rebuilt otherwise)");
+        paramOptions.addOption("mappedMatrixDir", true, "Enter a directory to keep the similarity matrices in memory-mapped files there, instead of the Java heap (for matrices larger than the available memory)");
+        paramOptions.addOption("approximate", true, "Enter a similarity threshold in (0, 1] to compute an approximate genewise HSM with a graph-based measure (simGIC or simUI): only the pairs of genes above the threshold are estimated and printed, in triplet style");
+        paramOptions.addOption("topk", true, "Enter a number k to print, instead of the whole matrices, the k most similar terms or genes of every term or gene");
+        paramOptions.addOption("memoryBudget", true, "Enter a memory budget in MB to compute and print the genewise matrices by blocks of rows which fit in it, instead of storing them whole (for more genes than the available memory allows)");
+        paramOptions.addOption("geneAggregation", true, "Select how term similarities are aggregated into genewise HSM similarities: 'max' (most similar pair of terms, default), 'bma' (best-match average) or 'avg' (average of all the pairs of terms). A comma-separated list computes all of them in one pass, with an HSM output file for each");
 
         try {
             cmd = parser.parse(paramOptions, args);
@@ -297,6 +307,118 @@ public class ConsoleParameterValidator extends ParameterValidator {
                 }
             }
 
+            if (cmd.hasOption("walkEngine")) {
+                if (cmd.getOptionValue("walkEngine").toLowerCase().equals("iterative")) {
+                    this.walkEngine = ISM_validImplementation.WALK_ITERATIVE;
+                } else if (cmd.getOptionValue("walkEngine").toLowerCase().equals("topological")) {
+                    this.walkEngine = ISM_validImplementation.WALK_TOPOLOGICAL;
+                } else if (cmd.getOptionValue("walkEngine").toLowerCase().equals("leaves")) {
+                    this.walkEngine = ISM_validImplementation.WALK_LEAVES;
+                } else { //just in case something weird was written.
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for walkEngine option");
+                    System.err.println("ERROR: Invalid choice for walkEngine option");
+                    System.exit(-1);
+                }
+            }
+
+            if (cmd.hasOption("threads")) {
+                try {
+                    this.numThreads = Integer.parseInt(cmd.getOptionValue("threads"));
+                } catch (NumberFormatException e) {
+                    this.numThreads = 0;
+                }
+                if (this.numThreads < 1) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for threads option");
+                    System.err.println("ERROR: Invalid choice for threads option, it should be a positive integer");
+                    System.exit(-1);
+                }
+            }
+
+            if (cmd.hasOption("mappedMatrixDir")) {
+                this.mappedMatrixDirectory = new File(cmd.getOptionValue("mappedMatrixDir"));
+                if (!this.mappedMatrixDirectory.isDirectory() || !this.mappedMatrixDirectory.canWrite()) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for mappedMatrixDir option");
+                    System.err.println("ERROR: Invalid choice for mappedMatrixDir option, it should be a writable directory");
+                    System.exit(-1);
+                }
+            }
+
+            if (cmd.hasOption("goCacheDir")) {
+                this.goCacheDirectory = new File(cmd.getOptionValue("goCacheDir"));
+                if (!this.goCacheDirectory.isDirectory() || !this.goCacheDirectory.canWrite()) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for goCacheDir option");
+                    System.err.println("ERROR: Invalid choice for goCacheDir option, it should be a writable directory");
+                    System.exit(-1);
+                }
+            }
+
+            if (cmd.hasOption("geneAggregation")) {
+                this.geneAggregations = IoValidation.validateGeneAggregations(cmd.getOptionValue("geneAggregation").toLowerCase().split(","));
+            }
+
+            if (cmd.hasOption("approximate")) {
+                try {
+                    this.approximateThreshold = Float.parseFloat(cmd.getOptionValue("approximate"));
+                } catch (NumberFormatException e) {
+                    this.approximateThreshold = 0.0f;
+                }
+                if (!(this.approximateThreshold > 0.0f && this.approximateThreshold <= 1.0f)) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for approximate option");
+                    System.err.println("ERROR: Invalid choice for approximate option, it should be a threshold in (0, 1]");
+                    System.exit(-1);
+                }
+                if (this.termWise || this.ismChoice) {
+                    logger.logAndCloseWriter("############ ERROR: approximate option used with a termwise calculation or an ISM");
+                    System.err.println("ERROR: approximate option is only available for genewise HSM calculations");
+                    System.exit(-1);
+                }
+                this.notes.add("approximate, threshold " + this.approximateThreshold);
+            }
+
+            if (cmd.hasOption("topk")) {
+                try {
+                    this.topK = Integer.parseInt(cmd.getOptionValue("topk"));
+                } catch (NumberFormatException e) {
+                    this.topK = 0;
+                }
+                if (this.topK < 1) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for topk option");
+                    System.err.println("ERROR: Invalid choice for topk option, it should be a positive integer");
+                    System.exit(-1);
+                }
+                if (this.approximateThreshold > 0.0f) {
+                    logger.logAndCloseWriter("############ ERROR: topk and approximate options used together");
+                    System.err.println("ERROR: topk and approximate options cannot be used together");
+                    System.exit(-1);
+                }
+                this.notes.add("top " + this.topK + " neighbours");
+            }
+
+            if (cmd.hasOption("memoryBudget")) {
+                try {
+                    this.memoryBudget = Integer.parseInt(cmd.getOptionValue("memoryBudget"));
+                } catch (NumberFormatException e) {
+                    this.memoryBudget = 0;
+                }
+                if (this.memoryBudget < 1) {
+                    logger.logAndCloseWriter("############ ERROR: Invalid choice for memoryBudget option");
+                    System.err.println("ERROR: Invalid choice for memoryBudget option, it should be a positive number of MB");
+                    System.exit(-1);
+                }
+                if (this.termWise || this.approximateThreshold > 0.0f || this.topK > 0) {
+                    logger.logAndCloseWriter("############ ERROR: memoryBudget option used with a termwise calculation, approximate or topk");
+                    System.err.println("ERROR: memoryBudget option is only available for whole genewise matrices (not with approximate or topk)");
+                    System.exit(-1);
+                }
+            }
+
+            if (this.geneAggregations.length > 1
+                    && (this.termWise || this.ismChoice || this.approximateThreshold > 0.0f || this.topK > 0 || this.memoryBudget > 0)) {
+                logger.logAndCloseWriter("############ ERROR: several gene aggregations used with a termwise calculation, an ISM, approximate, topk or memoryBudget");
+                System.err.println("ERROR: several gene aggregations are only available for whole genewise HSM matrices (not with approximate, topk or memoryBudget)");
+                System.exit(-1);
+            }
+
         } catch (ParseException e) {
             logger.logAndCloseWriter("############ ERROR: Parse Failed");
             System.err.println("ERROR: Parse failed : " + e.getMessage());
@@ -20,9 +20,11 @@ import GOtree.GOTerm;
 import GOtree.GeneOntology;
 import GOtree.GeneOntologyException;
 import GOtree.GeneOntologyParser;
+import GOtree.GeneOntologySnapshot;
 import GOtree.Ontology;
 import GOtree.Propagation;
 import GOtree.PropagationStrategies.PropagationMaxWithinTrees;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Arrays;
@@ -56,7 +58,8 @@ public class GOtreeInterfacer {
     //'OBOpath' contains the file path for the OBO file, 'annoPath' contains the file path for the GOA file, 'relations' contains the GO relations we are using, 'evidenceCodes' contains
     //the evidence codes we're using, 'strategyChoice' is the propagation strategy to use, however this is always 1, and the two variables are
     //used for writing the log file if necessary & are used for thus as parameters in the other methods within this class
-    public GOtreeInterfacer(String OBOpath, String annoPath, String[] relations, String[] evidenceCodes, int strategyChoice, String dagChoice, TinyLogger logw) throws FileNotFoundException, IOException, GeneOntologyException {
+    //'goCacheDirectory' keeps the snapshots of the parsed GO (null to always parse the OBO file)
+    public GOtreeInterfacer(String OBOpath, String annoPath, String[] relations, String[] evidenceCodes, int strategyChoice, String dagChoice, File goCacheDirectory, TinyLogger logw) throws FileNotFoundException, IOException, GeneOntologyException {
         //all methods called from the constructor, no need to reference anything but the results produced and made available by the 'getter' methods
         //instantiates the log variables if necessary
         logwriter = logw;
@@ -76,7 +79,7 @@ public class GOtreeInterfacer {
         this.GO_relations = relations;
         this.weightedAnnotations = new HashMap<GOTerm, Double>();
         logwriter.log("Fetching GO");
-        generate_GO(OBOpath); //Parse the OBO file
+        generate_GO(OBOpath, goCacheDirectory); //Parse the OBO file (or read its snapshot)
         logwriter.log("GO parsed");
         logwriter.log("Loading annotation");
         load_Annotation(annoPath, evidenceCodes); //Parse the GOA file
@@ -102,11 +105,22 @@ public class GOtreeInterfacer {
         return this.annotations.sizeTerms() == 0;
     }
 
-    //parses the OBO file specified by 'OBOpath'
-    private void generate_GO(String OBOpath) throws FileNotFoundException, IOException, GeneOntologyException {
-        GeneOntologyParser parser = new GeneOntologyParser();
+    //parses the OBO file specified by 'OBOpath', or reads its snapshot from 'goCacheDirectory' when it is up to date
+    private void generate_GO(String OBOpath, File goCacheDirectory) throws FileNotFoundException, IOException, GeneOntologyException {
         GOTerm.setRelations(this.GO_relations);
-        GeneOntology ontology = parser.readFromOBOFile(OBOpath, false);
+        GeneOntology ontology;
+        if (goCacheDirectory == null) {
+            GeneOntologyParser parser = new GeneOntologyParser();
+            ontology = parser.readFromOBOFile(OBOpath, false);
+        } else {
+            GeneOntologySnapshot snapshot = new GeneOntologySnapshot(goCacheDirectory);
+            ontology = snapshot.readFromOBOFile(OBOpath, false);
+            if (snapshot.wasUpToDate()) {
+                logwriter.showMessage("GO read from the snapshot " + snapshot.getLastSnapshot());
+            } else {
+                logwriter.showMessage("GO parsed, snapshot written to " + snapshot.getLastSnapshot());
+            }
+        }
         this.GO = ontology;
     }
 
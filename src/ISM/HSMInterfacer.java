@@ -19,11 +19,16 @@ package ISM;
  * @author Samuel Heron
  */
 import GOtree.GOTerm;
+import HSM.GeneAggregations.GeneAggregation;
 import HSM.HSM;
-import Jama.Matrix;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -46,7 +51,7 @@ public class HSMInterfacer {
     private final Set<GOTerm> targets;
     private final GOTerm[][] matrixAxis;
     private final String[] targetGenes;
-    private Matrix originalMatrix;
+    private SymmetricMatrix originalMatrix;
 
     /**
      * Constructor: Instantiates the log file variable if a log file is to be
@@ -67,6 +72,10 @@ public class HSMInterfacer {
         return chosenHSM.isAGraphBasedMeasure();
     }
 
+    public void setGeneAggregation(GeneAggregation geneAggregation) {
+        this.chosenHSM.setGeneAggregation(geneAggregation);
+    }
+
     //Retrieves the specific HSm instance, parameters detailed above the 'getHSMinstance()' method
     public void retrieveHSMinstance(String name, Object[] params) throws IOException {
         HSM hsmInstance = null;
@@ -108,17 +117,17 @@ public class HSMInterfacer {
         this.chosenHSM = hsmInstance;
     }
 
-    public Matrix getOriginalCachedMatrix() {
+    public SymmetricMatrix getOriginalCachedMatrix() {
         return this.originalMatrix;
     }
 
-    public Matrix returnGeneWiseResults(int matrix) throws IOException {
+    public SymmetricMatrix returnGeneWiseResults(int matrix) throws IOException {
         if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
             // this case might happen if the organism has no annotation in that ontology
             return null;
         }
 
-        this.originalMatrix = this.chosenHSM.calculateGeneWiseSemanticSimilarity(matrix);
+        this.originalMatrix = this.chosenHSM.calculateGeneWiseSemanticSimilaritySymmetric(matrix);
         if (this.targetGenes == null || this.targetGenes.length == 0) {
 
             return this.originalMatrix;
@@ -127,14 +136,141 @@ public class HSMInterfacer {
         }
     }
 
+    //Retrieves the genewise HSM results for several gene aggregations, computed
+    //in a single pass (one matrix per aggregation, in the same order)
+    public SymmetricMatrix[] returnGeneWiseResults(int matrix, GeneAggregation[] aggregations) throws IOException {
+        if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
+            // this case might happen if the organism has no annotation in that ontology
+            return null;
+        }
+
+        this.originalMatrix = null;
+        SymmetricMatrix[] results = this.chosenHSM.calculateGeneWiseSemanticSimilarities(matrix, aggregations);
+        if (this.targetGenes != null && this.targetGenes.length > 0) {
+            for (int a = 0; a < results.length; a++) {
+                results[a] = returnTrimmedMatrixForGenes(results[a]);
+            }
+        }
+        return results;
+    }
+
+    //Retrieves the k nearest neighbours of every gene in the genewise HSM
+    //(its rows are streamed unless some genes were selected)
+    public TopKNeighbours returnGeneWiseResultsTopK(int matrix, int k) throws IOException {
+        if (this.targetGenes == null || this.targetGenes.length == 0) {
+            if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
+                // this case might happen if the organism has no annotation in that ontology
+                return null;
+            }
+            this.originalMatrix = null;
+            return this.chosenHSM.calculateGeneWiseSemanticSimilarityTopK(matrix, k);
+        } else {
+            SymmetricMatrix trimmed = this.returnGeneWiseResults(matrix);
+            return trimmed == null ? null : TopKNeighbours.fromMatrix(trimmed, k);
+        }
+    }
+
+    //Retrieves the rows of the genewise HSM, to be computed one by one (the
+    //genes selected, if any, are not trimmed, see getSelectedGenes)
+    public SymmetricRows returnGeneWiseResultsRows(int matrix) throws IOException {
+        if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
+            // this case might happen if the organism has no annotation in that ontology
+            return null;
+        }
+        this.originalMatrix = null;
+        return this.chosenHSM.calculateGeneWiseSemanticSimilarityRows(matrix);
+    }
+
+    //Indices of the selected genes among the computed ones, in order, null if
+    //no genes were selected
+    public int[] getSelectedGenes() {
+        if (this.targetGenes == null || this.targetGenes.length == 0) {
+            return null;
+        }
+        Set<String> selGenez = new HashSet<String>();
+        selGenez.addAll(Arrays.asList(this.targetGenes));
+        String[] allGenes = this.chosenHSM.getSubSetGenes();
+        ArrayList<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < allGenes.length; i++) {
+            if (selGenez.contains(allGenes[i])) {
+                indices.add(i);
+            }
+        }
+        int[] selected = new int[indices.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = indices.get(i);
+        }
+        return selected;
+    }
+
+    //Retrieves the approximate genewise HSM results: the pairs of genes above the threshold
+    public SparseMatrix returnApproximateGeneWiseResults(int matrix, float threshold) throws IOException {
+        if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
+            // this case might happen if the organism has no annotation in that ontology
+            return null;
+        }
+
+        SparseMatrix pairs = this.chosenHSM.calculateApproximateGeneWiseSemanticSimilarity(matrix, threshold);
+        if (this.targetGenes == null || this.targetGenes.length == 0) {
+            return pairs;
+        } else {
+            return returnTrimmedPairsForGenes(pairs);
+        }
+    }
+
+    private SparseMatrix returnTrimmedPairsForGenes(SparseMatrix in) {
+        Set<String> selGenez = new HashSet<String>();
+        selGenez.addAll(Arrays.asList(this.targetGenes));
+        String[] allGenes = this.chosenHSM.getSubSetGenes();
+
+        //new index of every selected gene, -1 for the rest
+        int[] newIndex = new int[in.getRowDimension()];
+        int size = 0;
+        for (int i = 0; i < in.getRowDimension(); i++) {
+            newIndex[i] = selGenez.contains(allGenes[i]) ? size++ : -1;
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        final int[] ptr = in.getRowPointers();
+        final int[] idx = in.getColumnIndices();
+        final float[] val = in.getValues();
+        int[][] rowCols = new int[size][];
+        float[][] rowVals = new float[size][];
+        for (int i = 0; i < in.getRowDimension(); i++) {
+            if (newIndex[i] < 0) {
+                continue;
+            }
+            int n = 0;
+            for (int k = ptr[i]; k < ptr[i + 1]; k++) {
+                if (newIndex[idx[k]] >= 0) {
+                    n++;
+                }
+            }
+            int[] cols = new int[n];
+            float[] vals = new float[n];
+            n = 0;
+            for (int k = ptr[i]; k < ptr[i + 1]; k++) {
+                if (newIndex[idx[k]] >= 0) {
+                    cols[n] = newIndex[idx[k]];
+                    vals[n++] = val[k];
+                }
+            }
+            rowCols[newIndex[i]] = cols;
+            rowVals[newIndex[i]] = vals;
+        }
+        return SparseMatrix.fromRows(size, size, rowCols, rowVals);
+    }
+
     //Retrieves the HSM results, the parameter specifying whether we want to force it to return the gene simiarity results (only required fro printing)
-    public Matrix returnTermWiseResults(int matrix) throws IOException {
+    public SymmetricMatrix returnTermWiseResults(int matrix) throws IOException {
         if (chosenHSM.getNumGOTermsPerOntology(matrix) == 0) {
             // this case might happen if the organism has no annotation in that ontology
             return null;
         }
         
-        this.originalMatrix = chosenHSM.calculateTermWiseSemanticSimilarity(matrix);
+        this.originalMatrix = chosenHSM.calculateTermWiseSemanticSimilaritySymmetric(matrix);
 
         if (this.targets == null || this.targets.isEmpty()) {
             return this.originalMatrix;
@@ -143,8 +279,8 @@ public class HSMInterfacer {
         }
     }
 
-    private Matrix returnTrimmedMatrixForGenes(Matrix in) {
-        Matrix trimmedMatrix;
+    private SymmetricMatrix returnTrimmedMatrixForGenes(SymmetricMatrix in) {
+        SymmetricMatrix trimmedMatrix;
         trimmedMatrix = null;
 
         int size = 0, rowInd = 0, colInd = 0;
@@ -160,7 +296,7 @@ public class HSMInterfacer {
         }
 
         if (size > 0) {
-            trimmedMatrix = new Matrix(size, size);
+            trimmedMatrix = new SymmetricMatrix(size);
             for (int i = 0; i < in.getRowDimension(); i++) {
 
                 if (selGenez.contains(allGenes[i])) {
@@ -179,9 +315,9 @@ public class HSMInterfacer {
         return trimmedMatrix;
     }
 
-    private Matrix returnTrimmedMatrix(Matrix in, int matrix) {
+    private SymmetricMatrix returnTrimmedMatrix(SymmetricMatrix in, int matrix) {
         int size = 0, rowInd = 0, colInd = 0;
-        Matrix trimmedMatrix;
+        SymmetricMatrix trimmedMatrix;
         trimmedMatrix = null;
 
         for (int i = 0; i < in.getRowDimension(); i++) {
@@ -190,7 +326,7 @@ public class HSMInterfacer {
             }
         }
         if (size > 0) {
-            trimmedMatrix = new Matrix(size, size);
+            trimmedMatrix = new SymmetricMatrix(size);
             for (int i = 0; i < in.getRowDimension(); i++) {
                 if (targets.contains(matrixAxis[matrix][i])) {
                     for (int j = 0; j < in.getRowDimension(); j++) {
@@ -17,12 +17,20 @@ package ISM;
 import GOtree.AnnotationFile;
 import GOtree.GOTerm;
 import GOtree.GeneOntologyException;
-import Jama.Matrix;
+import HSM.GeneAggregations.GeneAggregation;
+import ISM_ImplementationStrategies.ISM_validImplementation;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import util.FloatKernels;
+import util.Parallel;
 import util.TinyLogger;
 
 /**
@@ -98,6 +106,35 @@ public class ISM {
      * to identify proteins
      */
     private boolean useUniProtIds;
+    /**
+     * Engine used to compute the random walk of the ISM (see
+     * ISM_validImplementation.WALK_* constants)
+     */
+    private int walkEngine;
+    /**
+     * Aggregations of the term similarities into genewise HSM similarities
+     * (one HSM output for each if there are several)
+     */
+    private GeneAggregation[] geneAggregations;
+    /**
+     * Threshold of the approximate genewise HSM (0 for exact similarities)
+     */
+    private float approximateThreshold;
+    /**
+     * Number of neighbours printed for every term or gene (0 for the whole
+     * matrices)
+     */
+    private int topK;
+    /**
+     * Memory budget (in MB) for the blocks of rows of the genewise matrices (0
+     * for the whole matrices)
+     */
+    private int memoryBudget;
+    /**
+     * Directory of the snapshots of the parsed GO (null to always parse the
+     * OBO file)
+     */
+    private File goCacheDirectory;
     /**
      * Logger used to output messages
      */
@@ -145,6 +182,10 @@ public class ISM {
         }
         AnnotationFile.useUniProtIds(this.useUniProtIds);
         this.logger.log("All parameters validated, except GO terms");
+        this.logger.showMessage("Matrix kernels: " + FloatKernels.getKernels().getName() + ", " + Parallel.getNumThreads() + " thread(s)");
+        if (SymmetricMatrix.getMappedDirectory() != null) {
+            this.logger.showMessage("Similarity matrices in memory-mapped files, in " + SymmetricMatrix.getMappedDirectory());
+        }
     }
 
     private void setParametersConsole(ParameterValidator validator) {
@@ -164,6 +205,14 @@ public class ISM {
         this.weightedJaccard = validator.isWeightedJaccard();
         this.useUniProtIds = validator.isUseUniProtIds();
         this.matrixStyle = validator.getMatrixStyle();
+        this.walkEngine = validator.getWalkEngine();
+        this.geneAggregations = validator.getGeneAggregations();
+        this.approximateThreshold = validator.getApproximateThreshold();
+        this.topK = validator.getTopK();
+        this.memoryBudget = validator.getMemoryBudget();
+        this.goCacheDirectory = validator.getGoCacheDirectory();
+        Parallel.setNumThreads(validator.getNumThreads());
+        SymmetricMatrix.setMappedDirectory(validator.getMappedMatrixDirectory());
     }
 
     private void setParametersPrompt(ParameterValidator validator) {
@@ -179,7 +228,7 @@ public class ISM {
 
         logger.showMessage("#####Importing GO & Annotation Data#####");
         int propagationStrategy = 1; //Choice of propagation strategy, 1 as default, never changed.
-        GOtreeInterfacer gti = new GOtreeInterfacer(this.oboFile, this.goaFile, this.chosenRelations, this.evidenceCodes, propagationStrategy, this.dagChoice, this.logger);
+        GOtreeInterfacer gti = new GOtreeInterfacer(this.oboFile, this.goaFile, this.chosenRelations, this.evidenceCodes, propagationStrategy, this.dagChoice, this.goCacheDirectory, this.logger);
         logger.log("GOtree_Interfacer instantiated & executed");
         return gti;
     }
@@ -287,7 +336,8 @@ public class ISM {
             System.err.println("ERROR: Insufficient memory to run GOSSTO with the chosen parameter set.");
             System.err.println("Please, launch the Java Virtual Machine with at least 2 GB of memory,");
             System.err.println("by setting 'java -Xmx2G ... '. Check your systems documentation for");
-            System.err.println("specific options.");
+            System.err.println("specific options. Similarity matrices can also be kept out of the");
+            System.err.println("heap, in memory-mapped files, with the -mappedMatrixDir option.");
             System.exit(-1);
         } catch (GeneOntologyException ex) {
             System.err.println("ERROR: problem with the Gene Ontology file.");
@@ -311,6 +361,18 @@ public class ISM {
         Object[] params = generateParameters(gti, matrixAxis);
         HSMInterfacer hsmi = buildsHSMInterfacer(params, new HashSet<GOTerm>(goIDsAsGOTerm), matrixAxis);
         hsmi.retrieveHSMinstance(this.hsmChoice, params);
+        hsmi.setGeneAggregation(this.geneAggregations[0]);
+        if (this.approximateThreshold > 0.0f && !hsmi.isAGraphBasedMeasure()) {
+            logger.logAndCloseWriter("############ ERROR: approximate option used with a non graph-based HSM");
+            System.err.println("ERROR: approximate option is only available for graph-based HSMs (simGIC, simUI)");
+            System.exit(-1);
+        }
+
+        if (this.geneAggregations.length > 1 && hsmi.isAGraphBasedMeasure()) {
+            logger.logAndCloseWriter("############ ERROR: several gene aggregations used with a graph-based HSM");
+            System.err.println("ERROR: gene aggregations are not used by graph-based HSMs (simGIC, simUI)");
+            System.exit(-1);
+        }
 
         // 2.2.- Iterate and make the whole process for every desired ontology
         int loopVars[] = this.setLoopVars(dagChoice, logger);
@@ -319,10 +381,39 @@ public class ISM {
             // for each ontology...
             // (a) compute HSM
             logger.showMessage("##### Computing HSM (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
-            Matrix hsmResults;
+            SymmetricMatrix hsmResults;
 
             String genesRows[] = null;
 
+            if (this.approximateThreshold > 0.0f) {
+                // approximate genewise HSM, only the pairs above the threshold
+                SparseMatrix pairs = hsmi.returnApproximateGeneWiseResults(ontology, this.approximateThreshold);
+                genesRows = this.geneIDs != null ? this.geneIDs : hsmi.getComputedGenes();
+                logger.log("HSM calculated");
+                logger.showMemoryUsage();
+                logger.showMessage("##### Printing HSM Results to File (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
+                solutionPrinter.printPairsToFileTripletStyle(ontology, pairs, this.hsmFileName, genesRows);
+                continue;
+            }
+
+            if (this.topK > 0) {
+                // only the nearest neighbours of every term or gene
+                this.computeAndWriteNeighbours(hsmi, gti, matrixAxis, goIDsAsGOTerm, ontology, solutionPrinter);
+                continue;
+            }
+
+            if (this.geneAggregations.length > 1) {
+                // genewise HSM for every aggregation, computed in a single pass
+                this.computeAndWriteAggregations(hsmi, matrixAxis, goIDsAsGOTerm, ontology, solutionPrinter);
+                continue;
+            }
+
+            if (this.memoryBudget > 0) {
+                // genewise matrices by blocks of rows, printed as soon as they are computed
+                this.computeAndWriteBlocks(hsmi, gti, matrixAxis, goIDsAsGOTerm, ontology, solutionPrinter);
+                continue;
+            }
+
             if (this.termWise) {
                 // compute HSM term-wise
                 hsmResults = hsmi.returnTermWiseResults(ontology);
@@ -355,13 +446,13 @@ public class ISM {
                 ISMInterfacer ism = new ISMInterfacer();
 
                 logger.showMessage("##### Computing ISM (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
-                Matrix ismResults;
+                SymmetricMatrix ismResults;
                 if (this.termWise) {
                     // compute ISM term-wise
-                    ismResults = ism.getISMs(matrixAxis, hsmResults, gti.getResults(), goIDsAsGOTerm, chosenRelations, dagChoice, ontology, logger);
+                    ismResults = ism.getISMs(matrixAxis, hsmResults, gti.getResults(), goIDsAsGOTerm, chosenRelations, dagChoice, ontology, logger, this.walkEngine);
                 } else {
                     // compute ISM gene-wise
-                    ismResults = ism.getGeneISMs(matrixAxis, hsmResults, gti.getResults(), chosenRelations, dagChoice, ontology, logger, this.weightedJaccard, this.geneIDs, hsmi.getComputedGenes());
+                    ismResults = ism.getGeneISMs(matrixAxis, hsmResults, gti.getResults(), chosenRelations, dagChoice, ontology, logger, this.weightedJaccard, this.walkEngine, this.geneIDs, hsmi.getComputedGenes());
                 }
 
                 // and we print the results of the HSM to a file...            
@@ -378,6 +469,191 @@ public class ISM {
         }
     }
 
+    /**
+     * Computes the genewise HSM of an ontology for every gene aggregation, in a
+     * single pass over the pairs of genes, and prints each of them to its own
+     * file (the HSM output followed by the name of the aggregation).
+     */
+    private void computeAndWriteAggregations(HSMInterfacer hsmi, GOTerm[][] matrixAxis, ArrayList<GOTerm> goIDsAsGOTerm,
+            int ontology, SolutionPrinter solutionPrinter) throws IOException {
+        final String ontologyName = new String[]{"BP", "MF", "CC"}[ontology];
+        SymmetricMatrix[] hsmResults = hsmi.returnGeneWiseResults(ontology, this.geneAggregations);
+        String genesRows[] = this.geneIDs != null ? this.geneIDs : hsmi.getComputedGenes();
+        logger.log("HSM calculated");
+        logger.showMemoryUsage();
+
+        logger.showMessage("##### Printing HSM Results to File (" + ontologyName + ") #####");
+        for (int a = 0; a < this.geneAggregations.length; a++) {
+            SymmetricMatrix results = hsmResults == null ? null : hsmResults[a];
+            String fileName = this.hsmFileName + "_" + this.geneAggregations[a].getName().replace(' ', '-');
+            if (this.matrixStyle == ISM.MATRIX_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+                solutionPrinter.printResultsToFile(ontology, results, matrixAxis, fileName, this.notes, goIDsAsGOTerm, genesRows);
+            }
+            if (this.matrixStyle == ISM.TRIPLET_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+                solutionPrinter.printeResultsToFileTripletStyle(ontology, results, matrixAxis, fileName + "_triplet", this.notes, goIDsAsGOTerm, genesRows);
+            }
+        }
+    }
+
+    /**
+     * Computes and prints the top k neighbours of every term or gene of an
+     * ontology, both for the HSM and (if requested) the ISM. The ISM and the
+     * genewise HSM (if no ISM is computed) are streamed row by row, without
+     * storing the whole matrix.
+     */
+    private void computeAndWriteNeighbours(HSMInterfacer hsmi, GOtreeInterfacer gti, GOTerm[][] matrixAxis, ArrayList<GOTerm> goIDsAsGOTerm,
+            int ontology, SolutionPrinter solutionPrinter) throws IOException {
+        // (a) compute HSM
+        TopKNeighbours hsmNeighbours;
+        String genesRows[] = null;
+        if (this.termWise) {
+            SymmetricMatrix hsmResults = hsmi.returnTermWiseResults(ontology);
+            hsmNeighbours = hsmResults == null ? null : TopKNeighbours.fromMatrix(hsmResults, this.topK);
+        } else {
+            if (this.isIsmToBeComputed) {
+                // the whole HSM is needed by the ISM
+                SymmetricMatrix hsmResults = hsmi.returnGeneWiseResults(ontology);
+                hsmNeighbours = hsmResults == null ? null : TopKNeighbours.fromMatrix(hsmResults, this.topK);
+            } else {
+                hsmNeighbours = hsmi.returnGeneWiseResultsTopK(ontology, this.topK);
+            }
+            genesRows = this.geneIDs != null ? this.geneIDs : hsmi.getComputedGenes();
+        }
+        logger.log("HSM calculated");
+        logger.showMemoryUsage();
+
+        // (b) we print the neighbours of the HSM to a file...
+        logger.showMessage("##### Printing HSM Results to File (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
+        solutionPrinter.printTopKToFile(ontology, hsmNeighbours, matrixAxis, this.hsmFileName, this.notes, goIDsAsGOTerm, genesRows);
+
+        // (c) if we are to compute an ISM...
+        if (this.isIsmToBeComputed) {
+            SymmetricMatrix hsmResults = hsmi.getOriginalCachedMatrix();
+            ISMInterfacer ism = new ISMInterfacer();
+
+            logger.showMessage("##### Computing ISM (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
+            TopKNeighbours ismNeighbours;
+            if (this.termWise) {
+                ismNeighbours = ism.getISMsTopK(matrixAxis, hsmResults, gti.getResults(), goIDsAsGOTerm, chosenRelations, dagChoice, ontology, logger, this.walkEngine, this.topK);
+            } else {
+                ismNeighbours = ism.getGeneISMsTopK(matrixAxis, hsmResults, gti.getResults(), chosenRelations, dagChoice, ontology, logger, this.weightedJaccard, this.walkEngine, this.geneIDs, hsmi.getComputedGenes(), this.topK);
+            }
+
+            logger.showMessage("##### Printing ISM Results to File (" + new String[]{"BP", "MF", "CC"}[ontology] + ") #####");
+            logger.showMemoryUsage();
+            solutionPrinter.printTopKToFile(ontology, ismNeighbours, matrixAxis, this.ismFileName, this.notes, goIDsAsGOTerm, genesRows);
+        }
+    }
+
+    /**
+     * Computes and prints the genewise HSM and (if requested) ISM of an
+     * ontology by blocks of rows, as many as fit in the memory budget. The
+     * rows of every block are computed in parallel and printed straight away,
+     * so none of the genes x genes matrices is ever stored.
+     */
+    private void computeAndWriteBlocks(HSMInterfacer hsmi, GOtreeInterfacer gti, GOTerm[][] matrixAxis, ArrayList<GOTerm> goIDsAsGOTerm,
+            int ontology, SolutionPrinter solutionPrinter) throws IOException {
+        final String ontologyName = new String[]{"BP", "MF", "CC"}[ontology];
+        // (a) rows of the HSM, of the selected genes if any
+        final SymmetricRows hsmRows = hsmi.returnGeneWiseResultsRows(ontology);
+        final String genesRows[] = this.geneIDs != null ? this.geneIDs : hsmi.getComputedGenes();
+        final int[] selected = hsmRows == null ? null : hsmi.getSelectedGenes();
+        if (hsmRows == null || (selected != null && selected.length == 0)) {
+            // nothing to compute, the printer explains why
+            logger.showMessage("##### Printing HSM Results to File (" + ontologyName + ") #####");
+            this.printMatrixFiles(solutionPrinter, ontology, null, this.hsmFileName, matrixAxis, goIDsAsGOTerm, genesRows);
+            if (this.isIsmToBeComputed) {
+                logger.showMessage("##### Printing ISM Results to File (" + ontologyName + ") #####");
+                this.printMatrixFiles(solutionPrinter, ontology, null, this.ismFileName, matrixAxis, goIDsAsGOTerm, genesRows);
+            }
+            return;
+        }
+        final int numGenes = hsmRows.getRowDimension();
+        final int n = selected == null ? numGenes : selected.length;
+        logger.showMemoryUsage();
+
+        // (b) if we are to compute an ISM, its walk
+        ISM_validImplementation ismRows = null;
+        if (this.isIsmToBeComputed) {
+            logger.showMessage("##### Computing ISM (" + ontologyName + ") #####");
+            ismRows = new ISMInterfacer().getGeneISMRows(matrixAxis, numGenes, gti.getResults(), chosenRelations, ontology, logger, this.weightedJaccard, this.walkEngine);
+        }
+        final ISM_validImplementation ism = ismRows;
+
+        // (c) rows of every block, as many as fit in the budget
+        final long rowBytes = 4L * Math.max(1, numGenes) * (ism == null ? 1 : 2);
+        final int blockRows = (int) Math.max(1, Math.min(n, this.memoryBudget * 1024L * 1024L / rowBytes));
+        final float[][] hsmBlock = new float[blockRows][numGenes];
+        final float[][] ismBlock = ism == null ? null : new float[blockRows][numGenes];
+        logger.showMessage("##### Computing and printing by blocks of " + blockRows + " rows (" + ontologyName + ") #####");
+
+        ArrayList<SolutionPrinter.RowPrinter> hsmPrinters = this.openRowPrinters(solutionPrinter, ontology, n, this.hsmFileName, matrixAxis, goIDsAsGOTerm, genesRows);
+        ArrayList<SolutionPrinter.RowPrinter> ismPrinters = ism == null ? new ArrayList<SolutionPrinter.RowPrinter>()
+                : this.openRowPrinters(solutionPrinter, ontology, n, this.ismFileName, matrixAxis, goIDsAsGOTerm, genesRows);
+        for (int first = 0; first < n; first += blockRows) {
+            final int start = first, end = Math.min(first + blockRows, n);
+            Parallel.forRange(start, end, new Parallel.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int r = from; r < to; r++) {
+                        final int i = selected == null ? r : selected[r];
+                        hsmRows.getRow(i, hsmBlock[r - start]);
+                        if (ism != null) {
+                            ism.getISMRow(i, hsmBlock[r - start], ismBlock[r - start]);
+                        }
+                    }
+                }
+            });
+            for (int r = start; r < end; r++) {
+                for (SolutionPrinter.RowPrinter printer : hsmPrinters) {
+                    printer.printRow(r, hsmBlock[r - start], selected);
+                }
+                for (SolutionPrinter.RowPrinter printer : ismPrinters) {
+                    printer.printRow(r, ismBlock[r - start], selected);
+                }
+            }
+        }
+        for (SolutionPrinter.RowPrinter printer : hsmPrinters) {
+            printer.close();
+        }
+        for (SolutionPrinter.RowPrinter printer : ismPrinters) {
+            printer.close();
+        }
+        logger.log("HSM calculated");
+        logger.showMemoryUsage();
+    }
+
+    //Opens the printers of the rows of a matrix, one for every file of the matrix style
+    private ArrayList<SolutionPrinter.RowPrinter> openRowPrinters(SolutionPrinter solutionPrinter, int ontology, int n, String fileName,
+            GOTerm[][] matrixAxis, ArrayList<GOTerm> goIDsAsGOTerm, String[] genesRows) throws IOException {
+        ArrayList<SolutionPrinter.RowPrinter> printers = new ArrayList<SolutionPrinter.RowPrinter>();
+        SolutionPrinter.RowPrinter printer;
+        if (this.matrixStyle == ISM.MATRIX_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+            printer = solutionPrinter.openRowPrinter(ontology, n, false, matrixAxis, fileName, this.notes, goIDsAsGOTerm, genesRows);
+            if (printer != null) {
+                printers.add(printer);
+            }
+        }
+        if (this.matrixStyle == ISM.TRIPLET_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+            printer = solutionPrinter.openRowPrinter(ontology, n, true, matrixAxis, fileName + "_triplet", this.notes, goIDsAsGOTerm, genesRows);
+            if (printer != null) {
+                printers.add(printer);
+            }
+        }
+        return printers;
+    }
+
+    //Prints a whole matrix in every file of the matrix style
+    private void printMatrixFiles(SolutionPrinter solutionPrinter, int ontology, SymmetricMatrix results, String fileName,
+            GOTerm[][] matrixAxis, ArrayList<GOTerm> goIDsAsGOTerm, String[] genesRows) throws IOException {
+        if (this.matrixStyle == ISM.MATRIX_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+            solutionPrinter.printResultsToFile(ontology, results, matrixAxis, fileName, this.notes, goIDsAsGOTerm, genesRows);
+        }
+        if (this.matrixStyle == ISM.TRIPLET_STYLE || this.matrixStyle == ISM.BOTH_FILES) {
+            solutionPrinter.printeResultsToFileTripletStyle(ontology, results, matrixAxis, fileName + "_triplet", this.notes, goIDsAsGOTerm, genesRows);
+        }
+    }
+
     /**
      * Builds the HSM interfacer
      *
@@ -17,7 +17,8 @@ package ISM;
 import GOtree.Assignment;
 import GOtree.GOTerm;
 import ISM_ImplementationStrategies.ISM_validImplementation;
-import Jama.Matrix;
+import Jama.SymmetricMatrix;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,16 +38,16 @@ public class ISMInterfacer {
     }
 
     //get termwise ism data, the parameters for this method match those of the ISM Implementation constructor. For more detail look in the relevant class.
-    public Matrix getISMs(GOTerm[][] matrixAxis, Matrix HSM, Assignment annotations,
-            ArrayList<GOTerm> userProvidedTerms, String[] GO_relations, String dagChoice, int matrix, TinyLogger logger)
+    public SymmetricMatrix getISMs(GOTerm[][] matrixAxis, SymmetricMatrix HSM, Assignment annotations,
+            ArrayList<GOTerm> userProvidedTerms, String[] GO_relations, String dagChoice, int matrix, TinyLogger logger, int walkEngine)
             throws IOException {
 
         if (HSM == null) {
             return null;
         } else {
 
-            ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, true, false, logger);
-            Matrix result = ism.computeISM();
+            ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, true, false, walkEngine, logger);
+            SymmetricMatrix result = ism.computeISM();
 
             if (userProvidedTerms == null || userProvidedTerms.isEmpty()) {
                 return result;
@@ -57,15 +58,15 @@ public class ISMInterfacer {
     }
 
     //get genewise ism data, the parameters for this method match those of the ISM Implementation constructor. For more detail look in the relevant class.
-    public Matrix getGeneISMs(GOTerm[][] matrixAxis, Matrix HSM, Assignment annotations,
+    public SymmetricMatrix getGeneISMs(GOTerm[][] matrixAxis, SymmetricMatrix HSM, Assignment annotations,
             String[] GO_relations, String dagChoice, int matrix, TinyLogger logger, boolean weightedJaccard,
-            String[] targets, String[] allgenes)
+            int walkEngine, String[] targets, String[] allgenes)
             throws IOException {
         if (HSM == null) {
             return null;
         } else {
-            ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, false, weightedJaccard, logger);
-            Matrix result = ism.computeISM();
+            ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, false, weightedJaccard, walkEngine, logger);
+            SymmetricMatrix result = ism.computeISM();
 
             if (targets == null || targets.length == 0) {
                 return result;
@@ -75,9 +76,77 @@ public class ISMInterfacer {
         }
     }
 
-    private Matrix returnTrimmedMatrix(Matrix in, int matrix, GOTerm[][] matrixAxis, Set<GOTerm> targets) {
+    //get the k nearest neighbours of every term in the termwise ism, whose rows are never stored at once
+    public TopKNeighbours getISMsTopK(GOTerm[][] matrixAxis, SymmetricMatrix HSM, Assignment annotations,
+            ArrayList<GOTerm> userProvidedTerms, String[] GO_relations, String dagChoice, int matrix, TinyLogger logger, int walkEngine, int k)
+            throws IOException {
+        if (HSM == null) {
+            return null;
+        }
+        int[] selected = null;
+        if (userProvidedTerms != null && !userProvidedTerms.isEmpty()) {
+            Set<GOTerm> targets = new HashSet<GOTerm>(userProvidedTerms);
+            ArrayList<Integer> indices = new ArrayList<Integer>();
+            for (int i = 0; i < HSM.getRowDimension(); i++) {
+                if (targets.contains(matrixAxis[matrix][i])) {
+                    indices.add(i);
+                }
+            }
+            selected = toArray(indices);
+            if (selected.length == 0) {
+                return null;
+            }
+        }
+        ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, true, false, walkEngine, logger);
+        return ism.computeISMTopK(k, selected);
+    }
+
+    //get the k nearest neighbours of every gene in the genewise ism, whose rows are never stored at once
+    public TopKNeighbours getGeneISMsTopK(GOTerm[][] matrixAxis, SymmetricMatrix HSM, Assignment annotations,
+            String[] GO_relations, String dagChoice, int matrix, TinyLogger logger, boolean weightedJaccard,
+            int walkEngine, String[] targets, String[] allgenes, int k)
+            throws IOException {
+        if (HSM == null) {
+            return null;
+        }
+        int[] selected = null;
+        if (targets != null && targets.length > 0) {
+            Set<String> selGenez = new HashSet<String>(Arrays.asList(targets));
+            ArrayList<Integer> indices = new ArrayList<Integer>();
+            for (int i = 0; i < HSM.getRowDimension(); i++) {
+                if (selGenez.contains(allgenes[i])) {
+                    indices.add(i);
+                }
+            }
+            selected = toArray(indices);
+            if (selected.length == 0) {
+                return null;
+            }
+        }
+        ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], HSM, GO_relations, annotations, false, weightedJaccard, walkEngine, logger);
+        return ism.computeISMTopK(k, selected);
+    }
+
+    //prepare the genewise ism to be computed row by row, from the rows of an hsm which is never stored
+    public ISM_validImplementation getGeneISMRows(GOTerm[][] matrixAxis, int numGenes, Assignment annotations,
+            String[] GO_relations, int matrix, TinyLogger logger, boolean weightedJaccard, int walkEngine)
+            throws IOException {
+        ISM_validImplementation ism = new ISM_validImplementation(matrixAxis[matrix], numGenes, GO_relations, annotations, weightedJaccard, walkEngine, logger);
+        ism.prepareISMRows();
+        return ism;
+    }
+
+    private static int[] toArray(ArrayList<Integer> indices) {
+        int[] array = new int[indices.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indices.get(i);
+        }
+        return array;
+    }
+
+    private SymmetricMatrix returnTrimmedMatrix(SymmetricMatrix in, int matrix, GOTerm[][] matrixAxis, Set<GOTerm> targets) {
         int size = 0, rowInd = 0, colInd = 0;
-        Matrix trimmedMatrix;
+        SymmetricMatrix trimmedMatrix;
         trimmedMatrix = null;
 
         for (int i = 0; i < in.getRowDimension(); i++) {
@@ -86,7 +155,7 @@ public class ISMInterfacer {
             }
         }
         if (size > 0) {
-            trimmedMatrix = new Matrix(size, size);
+            trimmedMatrix = new SymmetricMatrix(size);
             for (int i = 0; i < in.getRowDimension(); i++) {
                 if (targets.contains(matrixAxis[matrix][i])) {
                     for (int j = 0; j < in.getRowDimension(); j++) {
@@ -104,8 +173,8 @@ public class ISMInterfacer {
         return trimmedMatrix;
     }
 
-    private Matrix returnTrimmedMatrixForGenes(Matrix in, String[] allGenes, String[] targetGenes) {
-        Matrix trimmedMatrix;
+    private SymmetricMatrix returnTrimmedMatrixForGenes(SymmetricMatrix in, String[] allGenes, String[] targetGenes) {
+        SymmetricMatrix trimmedMatrix;
         trimmedMatrix = null;
 
         int size = 0, rowInd = 0, colInd = 0;
@@ -120,7 +189,7 @@ public class ISMInterfacer {
         }
 
         if (size > 0) {
-            trimmedMatrix = new Matrix(size, size);
+            trimmedMatrix = new SymmetricMatrix(size);
             for (int i = 0; i < in.getRowDimension(); i++) {
 
                 if (selGenez.contains(allGenes[i])) {
@@ -14,6 +14,10 @@
  */
 package ISM;
 
+import HSM.GeneAggregations.AverageAggregation;
+import HSM.GeneAggregations.BestMatchAverageAggregation;
+import HSM.GeneAggregations.GeneAggregation;
+import HSM.GeneAggregations.MaximumAggregation;
 import java.io.*;
 import java.util.*;
 import util.TinyLogger;
@@ -62,6 +66,32 @@ public class IoValidation {
         }
     }
 
+    //Checks the choice of gene aggregations; 'names', are acceptable and not repeated, and returns them
+    public static GeneAggregation[] validateGeneAggregations(String[] names) throws IOException {
+        GeneAggregation[] aggregations = new GeneAggregation[names.length];
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            if (name.equals("max")) {
+                aggregations[i] = new MaximumAggregation();
+            } else if (name.equals("bma")) {
+                aggregations[i] = new BestMatchAverageAggregation();
+            } else if (name.equals("avg")) {
+                aggregations[i] = new AverageAggregation();
+            } else { //just in case something weird was written.
+                logger.logAndCloseWriter("############ ERROR: Invalid choice for geneAggregation option: " + name);
+                System.err.println("ERROR: Invalid choice for geneAggregation option: " + name);
+                System.exit(-1);
+            }
+            if (!seen.add(name)) {
+                logger.logAndCloseWriter("############ ERROR: Repeated choice for geneAggregation option: " + name);
+                System.err.println("ERROR: Repeated choice for geneAggregation option: " + name);
+                System.exit(-1);
+            }
+        }
+        return aggregations;
+    }
+
     //Checks the choice of evidence codes; 'codes', are acceptable
     public static void validateEvidenceCodes(String[] codes) throws IOException {
 
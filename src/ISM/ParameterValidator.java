@@ -14,9 +14,14 @@ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
  */
 package ISM;
 
+import HSM.GeneAggregations.GeneAggregation;
+import HSM.GeneAggregations.MaximumAggregation;
+import ISM_ImplementationStrategies.ISM_validImplementation;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import util.Parallel;
 import util.TinyLogger;
 
 /**
@@ -42,6 +47,14 @@ public abstract class ParameterValidator {
     protected boolean weightedJaccard;
     protected int matrixStyle;
     protected boolean useUniProtIds;
+    protected int walkEngine;
+    protected int numThreads;
+    protected GeneAggregation[] geneAggregations;
+    protected float approximateThreshold;
+    protected int topK;
+    protected File mappedMatrixDirectory;
+    protected int memoryBudget;
+    protected File goCacheDirectory;
 
     protected ParameterValidator() {
         oboFile = "";
@@ -64,6 +77,14 @@ public abstract class ParameterValidator {
         ownHSM = false;
         this.useUniProtIds = true;
         this.matrixStyle = ISM.MATRIX_STYLE;
+        this.walkEngine = ISM_validImplementation.WALK_ITERATIVE;
+        this.numThreads = Parallel.getNumThreads();
+        this.geneAggregations = new GeneAggregation[]{new MaximumAggregation()};
+        this.approximateThreshold = 0.0f; // exact similarities by default
+        this.topK = 0; // whole matrices by default
+        this.mappedMatrixDirectory = null; // matrices in the heap by default
+        this.memoryBudget = 0; // whole genewise matrices by default
+        this.goCacheDirectory = null; // the OBO file is always parsed by default
     }
 
     public abstract void validate(TinyLogger logger) throws FileNotFoundException, IOException;
@@ -135,6 +156,38 @@ public abstract class ParameterValidator {
     public boolean isUseUniProtIds() {
         return useUniProtIds;
     }
+
+    public int getWalkEngine() {
+        return walkEngine;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public GeneAggregation[] getGeneAggregations() {
+        return geneAggregations;
+    }
+
+    public float getApproximateThreshold() {
+        return approximateThreshold;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public File getMappedMatrixDirectory() {
+        return mappedMatrixDirectory;
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public File getGoCacheDirectory() {
+        return goCacheDirectory;
+    }
     
     
 }
@@ -15,7 +15,9 @@
 package ISM;
 
 import GOtree.GOTerm;
-import Jama.Matrix;
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.TopKNeighbours;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -53,7 +55,7 @@ public class SolutionPrinter {
      * @param targetGoIDs
      * @throws java.io.IOException
      */
-    public void printResultsToFile(int ontology, Matrix matrix, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
+    public void printResultsToFile(int ontology, SymmetricMatrix matrix, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
         //re-validate file path:
         IoValidation.validateOutputLocation(outputName);
         File outputFileName = getOutputFileName(ontology, outputName);
@@ -125,7 +127,7 @@ public class SolutionPrinter {
         return goIds;
     }
 
-    public void printeResultsToFileTripletStyle(int ontology, Matrix matrix, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
+    public void printeResultsToFileTripletStyle(int ontology, SymmetricMatrix matrix, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
         //re-validate file path:
         IoValidation.validateOutputLocation(outputName);
         //Creates output file(s) where specified
@@ -169,6 +171,214 @@ public class SolutionPrinter {
         }
     }
 
+    /**
+     * Opens an output file where a matrix is printed by blocks of rows, as
+     * soon as they are computed, so that the whole matrix is never stored.
+     * The file is the same printResultsToFile (or
+     * printeResultsToFileTripletStyle) would print. The notes and the first
+     * line are printed here.
+     *
+     * @param ontology identifier of the ontology (0, 1 or 2)
+     * @param n number of rows (and columns) of the matrix (already 'reduced')
+     * @param tripletStyle whether the file is in triplet style or in matrix style
+     * @param axis
+     * @param outputName name of the output file
+     * @param notes
+     * @param targetGoIDs
+     * @param geneIDs
+     * @return the printer of the rows, or null if the matrix is not printed
+     * @throws java.io.IOException
+     */
+    public RowPrinter openRowPrinter(int ontology, int n, boolean tripletStyle, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
+        //re-validate file path:
+        IoValidation.validateOutputLocation(outputName);
+        File outputFileName = getOutputFileName(ontology, outputName);
+        if (n == 1) {
+            logger.showMessage("  ERROR: the specified user restrictions leaves a 1x1 matrix,");
+            logger.showMessage("  which will not be printed.");
+            return null;
+        }
+
+        String[] rowIdentifiers = getRowIdentifiers(n, targetGoIDs, getGOIds(targetGoIDs, ontology), geneIDs, axis, ontology);
+
+        logger.showMessage("Printing results for Ontology : " + ontologies[ontology]);
+        BufferedWriter out = new BufferedWriter(new FileWriter(outputFileName), 32768);
+        if (tripletStyle) {
+            logger.showMessage("Printing contents: " + n + " " + n);
+        } else {
+            // write notes
+            for (String note : notes) {
+                out.write("! ");
+                out.write(note);
+                out.newLine();
+            }
+
+            logger.showMessage("Notes printed");
+            // write first line
+            for (String row : rowIdentifiers) {
+                out.write(row);
+                out.write("\t");
+            }
+            out.newLine();
+        }
+        return new RowPrinter(out, outputFileName, rowIdentifiers, tripletStyle);
+    }
+
+    /**
+     * Prints the rows of a matrix, in order, to a file opened by
+     * openRowPrinter.
+     */
+    public class RowPrinter {
+
+        private final BufferedWriter out;
+        private final File outputFileName;
+        private final String[] rowIdentifiers;
+        private final boolean tripletStyle;
+
+        private RowPrinter(BufferedWriter out, File outputFileName, String[] rowIdentifiers, boolean tripletStyle) {
+            this.out = out;
+            this.outputFileName = outputFileName;
+            this.rowIdentifiers = rowIdentifiers;
+            this.tripletStyle = tripletStyle;
+        }
+
+        /**
+         * Prints the row i of the matrix (only its upper part in triplet
+         * style).
+         *
+         * @param i Row index.
+         * @param row values of the row
+         * @param columns positions of row of every column, null if the
+         * column j is row[j]
+         * @throws java.io.IOException
+         */
+        public void printRow(int i, float[] row, int[] columns) throws IOException {
+            final int n = this.rowIdentifiers.length;
+            if (this.tripletStyle) {
+                for (int j = i + 1; j < n; j++) {
+                    this.out.write(this.rowIdentifiers[i]);
+                    this.out.write("\t");
+                    this.out.write(this.rowIdentifiers[j]);
+                    this.out.write("\t" + row[columns == null ? j : columns[j]]);
+                    this.out.newLine();
+                }
+            } else {
+                this.out.write(this.rowIdentifiers[i]);
+                for (int j = 0; j < n; j++) {
+                    this.out.write("\t");
+                    this.out.write("" + row[columns == null ? j : columns[j]]);
+                }
+                this.out.newLine();
+            }
+        }
+
+        public void close() throws IOException {
+            this.out.close();
+            logger.log("Printing complete; Output File: " + this.outputFileName);
+            System.out.println("Printing COMPLETE; Output File: " + this.outputFileName);
+        }
+    }
+
+    /**
+     * Prints the pairs stored in the upper triangle of a sparse matrix (as
+     * computed by the approximate genewise HSM), one pair per line.
+     *
+     * @param ontology identifier of the ontology (0, 1 or 2)
+     * @param pairs pairs of genes, with their similarity
+     * @param outputName name of the output file
+     * @param geneIDs name of every gene
+     * @throws java.io.IOException
+     */
+    public void printPairsToFileTripletStyle(int ontology, SparseMatrix pairs, String outputName, String[] geneIDs) throws IOException {
+        //re-validate file path:
+        IoValidation.validateOutputLocation(outputName);
+        File outputFileName = getOutputFileName(ontology, outputName);
+        if (pairs == null) {
+            printMessageNotEnoughAnnotations(outputFileName);
+            return;
+        }
+
+        try {
+            logger.showMessage("Printing results for Ontology : " + ontologies[ontology]);
+            logger.showMessage("Printing contents: " + pairs.getNumNonZeros() + " pairs");
+            final int[] ptr = pairs.getRowPointers();
+            final int[] idx = pairs.getColumnIndices();
+            final float[] val = pairs.getValues();
+            BufferedWriter out = new BufferedWriter(new FileWriter(outputFileName), 32768);
+            for (int i = 0; i < pairs.getRowDimension(); i++) {
+                for (int k = ptr[i]; k < ptr[i + 1]; k++) {
+                    out.write(geneIDs[i]);
+                    out.write("\t");
+                    out.write(geneIDs[idx[k]]);
+                    out.write("\t" + val[k]);
+                    out.newLine();
+                }
+            }
+            out.close();
+            logger.log("Printing complete; Output File: " + outputFileName);
+            System.out.println("Printing COMPLETE; Output File: " + outputFileName);
+        } catch (java.lang.OutOfMemoryError oome) {
+            logger.logAndCloseWriter("############## ERROR: Out of memory Error of type: " + oome.getMessage());
+            System.err.println("ERROR: Java has run out of memory. Memory Type: " + oome.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Prints the nearest neighbours of every term or gene, one line per term
+     * or gene: its identifier followed by every neighbour and its similarity,
+     * best first, separated by tabs.
+     *
+     * @param ontology identifier of the ontology (0, 1 or 2)
+     * @param neighbours neighbours of every row (already 'reduced')
+     * @param axis
+     * @param outputName name of the output file
+     * @param notes
+     * @param targetGoIDs
+     * @param geneIDs
+     * @throws java.io.IOException
+     */
+    public void printTopKToFile(int ontology, TopKNeighbours neighbours, GOTerm[][] axis, String outputName, ArrayList<String> notes, ArrayList<GOTerm> targetGoIDs, String[] geneIDs) throws IOException {
+        //re-validate file path:
+        IoValidation.validateOutputLocation(outputName);
+        File outputFileName = getOutputFileName(ontology, outputName);
+        if (neighbours == null) {
+            printMessageNotEnoughAnnotations(outputFileName);
+            return;
+        }
+        final int n = neighbours.getRowDimension();
+        String[] rowIdentifiers = getRowIdentifiers(n, targetGoIDs, getGOIds(targetGoIDs, ontology), geneIDs, axis, ontology);
+
+        try {
+            logger.showMessage("Printing results for Ontology : " + ontologies[ontology]);
+            logger.showMessage("Printing contents: " + n + " x top " + neighbours.getK());
+            BufferedWriter out = new BufferedWriter(new FileWriter(outputFileName), 32768);
+            for (String note : notes) {
+                out.write("! ");
+                out.write(note);
+                out.newLine();
+            }
+            for (int i = 0; i < n; i++) {
+                final int[] columns = neighbours.getColumns(i);
+                final float[] values = neighbours.getValues(i);
+                out.write(rowIdentifiers[i]);
+                for (int c = 0; c < columns.length; c++) {
+                    out.write("\t");
+                    out.write(rowIdentifiers[columns[c]]);
+                    out.write("\t" + values[c]);
+                }
+                out.newLine();
+            }
+            out.close();
+            logger.log("Printing complete; Output File: " + outputFileName);
+            System.out.println("Printing COMPLETE; Output File: " + outputFileName);
+        } catch (java.lang.OutOfMemoryError oome) {
+            logger.logAndCloseWriter("############## ERROR: Out of memory Error of type: " + oome.getMessage());
+            System.err.println("ERROR: Java has run out of memory. Memory Type: " + oome.getMessage());
+            System.exit(-1);
+        }
+    }
+
     private String[] getRowIdentifiers(final int n, ArrayList<GOTerm> targetGoIDs, Set<Integer> goIds, String[] geneIDs, GOTerm[][] axis, int ontology) {
         String[] rowIdentifiers = new String[n];
         int ind = 0;
@@ -16,16 +16,19 @@ package ISM_ImplementationStrategies;
 
 import GOtree.Assignment;
 import GOtree.GOTerm;
+import GOtree.OntologyGraph;
 import Jama.Matrix;
 import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import Jama.SymmetricRows;
+import Jama.TopKNeighbours;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import util.Parallel;
 import util.TinyLogger;
 
 /**
@@ -42,6 +45,18 @@ public class ISM_validImplementation {
      * W = I; //random walkers
      * epsilon = 0.001
      */
+    /**
+     * Engines available to compute the random walk. The iterative one
+     * multiplies by P until convergence, the topological one computes the
+     * absorption probabilities exactly, visiting every node once after all of
+     * its children (the GO is a DAG and leafs are the only absorbing states).
+     * The leaves engine does the same sweep, but only for the rows of the
+     * leafs (the only ones used afterwards), in parallel and without ever
+     * storing the whole N x N matrix.
+     */
+    public static final int WALK_ITERATIVE = 0;
+    public static final int WALK_TOPOLOGICAL = 1;
+    public static final int WALK_LEAVES = 2;
     /*utils*/
     //number of GOterms in the adjacency matrix
 
@@ -55,10 +70,13 @@ public class ISM_validImplementation {
     private HashMap<String, Integer> proteinIndices; //to store the protein indices for genewise calculations
     private final double maxNumberOfAnnotations; //an integer to store the maximnun number of annotations of any node in the tree
     /*ISM elements*/
-    private Matrix RWC;
+    private SymmetricMatrix RWC;
+    private SparseJaccardEngine sparseRowEngine; //rows of the genewise RWC, when computed on demand
+    private JaccardEngine denseRowEngine;
     private final double epsilon;
     /*HSM*/
-    private final Matrix HSM;
+    private final SymmetricMatrix HSM; //null when it is given row by row
+    private final int numRows; //number of terms or genes of the HSM
     /*Annotations*/
     private final Assignment annotations; //the actual annotations. 
     private final HashMap<Integer, Integer> numAnnotations; //just a cache for regular annotations
@@ -68,12 +86,27 @@ public class ISM_validImplementation {
      */
     private final boolean termwise;
     private final boolean weightedJaccard;
+    private final int walkEngine;
     /**
      * Tells whether the HSM is a graph based measure or not
      */
     private final TinyLogger logger;
 
-    public ISM_validImplementation(GOTerm[] ISM_currentGoTerms, Matrix HSM, String[] ISM_currentRelations, Assignment ISM_Annotations, boolean termwise, boolean wJaccard, TinyLogger logger) {
+    public ISM_validImplementation(GOTerm[] ISM_currentGoTerms, SymmetricMatrix HSM, String[] ISM_currentRelations, Assignment ISM_Annotations, boolean termwise, boolean wJaccard, int walkEngine, TinyLogger logger) {
+        this(ISM_currentGoTerms, HSM, HSM.getRowDimension(), ISM_currentRelations, ISM_Annotations, termwise, wJaccard, walkEngine, logger);
+    }
+
+    /**
+     * Genewise ISM whose HSM is not stored, but given row by row (see
+     * prepareISMRows and getISMRow).
+     *
+     * @param numGenes number of genes of the HSM
+     */
+    public ISM_validImplementation(GOTerm[] ISM_currentGoTerms, int numGenes, String[] ISM_currentRelations, Assignment ISM_Annotations, boolean wJaccard, int walkEngine, TinyLogger logger) {
+        this(ISM_currentGoTerms, null, numGenes, ISM_currentRelations, ISM_Annotations, false, wJaccard, walkEngine, logger);
+    }
+
+    private ISM_validImplementation(GOTerm[] ISM_currentGoTerms, SymmetricMatrix HSM, int numRows, String[] ISM_currentRelations, Assignment ISM_Annotations, boolean termwise, boolean wJaccard, int walkEngine, TinyLogger logger) {
         //0. Utils
 
         //0.1 various caches for speedup
@@ -90,6 +123,7 @@ public class ISM_validImplementation {
 
         //0.4 HSM
         this.HSM = HSM;
+        this.numRows = numRows;
 
         //0.5.0 fire up the cache for the indices and load it up
         this.goTermIndex = new HashMap<Integer, Integer>();
@@ -113,6 +147,8 @@ public class ISM_validImplementation {
         this.termwise = termwise;
         //to differentiate between weighted and unweighted jaccard
         this.weightedJaccard = wJaccard;
+        //how the walk is computed
+        this.walkEngine = walkEngine;
 
         //we load the indices for the annotations only in the case
         //were we compute the genewise similarity
@@ -133,14 +169,8 @@ public class ISM_validImplementation {
         }
 
         //0.8 RWC
-        //Different sets have to be traversed
-        this.RWC = new Matrix(HSM.getRowDimension(), HSM.getColumnDimension());
-        /*
-         if (this.termwise) {
-         this.RWC = new Matrix(this.getNumGoTerms(), this.getNumGoTerms());
-         } else {
-         this.RWC = new Matrix(this.proteinIndices.size(), this.proteinIndices.size());
-         }*/
+        //it is allocated when computed (and never in the top-k mode)
+        this.RWC = null;
 
         //3.
         //just set the convergence limit.
@@ -149,22 +179,22 @@ public class ISM_validImplementation {
         this.logger = logger;
     }
 
-    public Matrix computeISM() throws IOException {
-        logger.showMemoryUsage();
-
-        //Step 1. Walk!
-        this.logger.showTimedMessage("Walking...");
-        Matrix W = walk();
-
+    public SymmetricMatrix computeISM() throws IOException {
         logger.showMemoryUsage();
 
+        //Step 1. Walk! (we only keep the rows of the leafs)
         //Step 2. Compute the random wal contribution
+        //(W is sparse for the genewise one)
+        this.logger.showTimedMessage("Walking...");
         if (this.termwise) {
+            Matrix W = walk();
+            logger.showMemoryUsage();
             this.setRandomWalkContributionTermwise(W);
         } else {
+            SparseMatrix W = walkSparse();
+            logger.showMemoryUsage();
             this.setRandomWalkContributionGeneWise(W);
         }
-        W = null;
         System.gc();
 
         logger.showMemoryUsage();
@@ -174,11 +204,117 @@ public class ISM_validImplementation {
         return this.getISM();
     }
 
-    private Matrix initialiseTransitionProbabilities() {
+    /**
+     * Computes the k nearest neighbours of every row of the ISM, without
+     * storing it: every row is computed, reduced to its top k and forgotten.
+     * In the genewise ISM the rows of the RWC are computed on the fly too.
+     *
+     * @param k number of neighbours of every row
+     * @param selected rows (and columns) of the ISM to consider, in order,
+     * null for all of them
+     * @return the neighbours, whose rows and columns are positions of selected
+     */
+    public TopKNeighbours computeISMTopK(final int k, final int[] selected) throws IOException {
+        logger.showMemoryUsage();
+
+        this.logger.showTimedMessage("Walking...");
+        final SparseMatrix B;
+        final float[] IC;
+        if (this.termwise) {
+            Matrix W = walk();
+            logger.showMemoryUsage();
+            this.setRandomWalkContributionTermwise(W);
+            B = null;
+            IC = null;
+        } else {
+            SparseMatrix W = walkSparse();
+            logger.showMemoryUsage();
+            B = this.getMatrixB(W);
+            IC = this.getLeafIC();
+        }
+        System.gc();
+
+        //ISM = (HSM + RWC) / 2, row by row
+        this.logger.showTimedMessage("Computing the top " + k + " of every row of the ISM");
+        final int n = selected == null ? this.numRows : selected.length;
+        final TopKNeighbours topK = new TopKNeighbours(n, k);
+        final SparseJaccardEngine sparseEngine = B != null && SparseJaccardEngine.isFasterThanDense(B) ? new SparseJaccardEngine(B, IC) : null;
+        final JaccardEngine denseEngine = B != null && sparseEngine == null ? new JaccardEngine(B, IC) : null;
+        Parallel.forRange(0, n, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final float[] row = new float[numRows];
+                final float[] H_i = new float[numRows];
+                for (int r = from; r < to; r++) {
+                    final int i = selected == null ? r : selected[r];
+                    if (sparseEngine != null) {
+                        sparseEngine.row(i, row);
+                    } else if (denseEngine != null) {
+                        denseEngine.row(i, row);
+                    } else {
+                        RWC.getRow(i, row);
+                    }
+                    HSM.getRow(i, H_i);
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] = (H_i[j] + row[j]) * 0.5f;
+                    }
+                    topK.offerRow(r, row, selected);
+                }
+            }
+        });
+        this.RWC = null;
+        this.logger.showTimedMessage("Top " + k + " set!");
+        return topK;
+    }
+
+    /**
+     * Prepares the genewise ISM to be computed row by row (see getISMRow):
+     * the walk is done, and the distribution of every gene over the leafs is
+     * kept, but neither the RWC nor the ISM are ever stored.
+     */
+    public void prepareISMRows() throws IOException {
+        logger.showMemoryUsage();
+
+        this.logger.showTimedMessage("Walking...");
+        SparseMatrix W = walkSparse();
+        logger.showMemoryUsage();
+        SparseMatrix B = this.getMatrixB(W);
+        float[] IC = this.getLeafIC();
+        if (SparseJaccardEngine.isFasterThanDense(B)) {
+            this.logger.showTimedMessage("Sparse Jaccard engine");
+            this.sparseRowEngine = new SparseJaccardEngine(B, IC);
+        } else {
+            this.logger.showTimedMessage("Dense Jaccard engine");
+            this.denseRowEngine = new JaccardEngine(B, IC);
+        }
+        System.gc();
+        logger.showMemoryUsage();
+    }
+
+    /**
+     * Computes a row of the genewise ISM, once prepareISMRows has been
+     * called. It can be called from several threads at the same time.
+     *
+     * @param i gene
+     * @param hsmRow row i of the HSM
+     * @param row as many positions as genes, where ISM(i,:) is written
+     */
+    public void getISMRow(int i, float[] hsmRow, float[] row) {
+        if (this.sparseRowEngine != null) {
+            this.sparseRowEngine.row(i, row);
+        } else {
+            this.denseRowEngine.row(i, row);
+        }
+        for (int j = 0; j < this.numRows; j++) {
+            row[j] = (hsmRow[j] + row[j]) * 0.5f;
+        }
+    }
+
+    private SparseMatrix initialiseTransitionProbabilities() {
         //1. initialise transitionprobabilities
         //we use a sparse matrix, so we don't need to put zeroes anywhere.
         //Matrix P = new Matrix(this.getNumGoTerms(), this.getNumGoTerms());
-        Matrix P = new SparseMatrix(this.getNumGoTerms(), this.getNumGoTerms());
+        SparseMatrix.Builder P = new SparseMatrix.Builder(this.getNumGoTerms(), this.getNumGoTerms());
 
         //0.1 check if the node is a leaf, if it is, put a 1 into it.
         for (GOTerm currentGoTerm : this.subGoTerms) {
@@ -194,10 +330,10 @@ public class ISM_validImplementation {
 
             this.setTransitionProbabilitiesNonLeaf(currentGoTerm, N_v, N_vStar, P);
         }
-        return P;
+        return P.build();
     }
 
-    private void setTransitionProbabilitiesNonLeaf(GOTerm currentGoTerm, int N_v, int N_vStar, Matrix P) {
+    private void setTransitionProbabilitiesNonLeaf(GOTerm currentGoTerm, int N_v, int N_vStar, SparseMatrix.Builder P) {
         //P(v,c) = (1 - N_v* / N_v) N_c/(Sum{u: v->u} N_u_)
         //P(v,c) = A * N_C/B
 
@@ -222,10 +358,7 @@ public class ISM_validImplementation {
 
         //the number of children per node is not very large, ArrayList is O(1) insertion, and O(n)
         //so it's ok.
-        Set<GOTerm> children = new HashSet<GOTerm>();
-        for (String currentRelation : this.relations) {
-            children.addAll(currentGoTerm.getChildrenForRelation(currentRelation));
-        }
+        GOTerm[] children = this.getChildren(currentGoTerm);
 
         //we count all the annotations in the children
         //B keesp the sum of N_u for every child.
@@ -246,15 +379,10 @@ public class ISM_validImplementation {
 
         final float inv_N_u = 1.0f / N_u;
 
-        Map<Integer, GOTerm> sortedChildren = new TreeMap<Integer, GOTerm>();
+        //children are visited by numeric id
+        Arrays.sort(children);
 
         for (GOTerm currentChild : children) {
-            sortedChildren.put(currentChild.getNumericId(), currentChild);
-        }
-
-
-        for (int currentChildId : sortedChildren.keySet()) {
-            GOTerm currentChild = sortedChildren.get(currentChildId);
 
             int N_c = this.getNumberOfAnnotations(currentChild);
 
@@ -276,10 +404,56 @@ public class ISM_validImplementation {
 
         //Step 0. Initialise transition probabilities
         this.logger.showTimedMessage("Initialise transition probabilities");
-        Matrix P = this.initialiseTransitionProbabilities();
+        SparseMatrix P = this.initialiseTransitionProbabilities();
 
         logger.showMemoryUsage();
 
+        Matrix W = null;
+        if (this.walkEngine == WALK_TOPOLOGICAL || this.walkEngine == WALK_LEAVES) {
+            //the transpose has, for every node, its transitions to its children
+            SparseMatrix Pt = P.transpose();
+            int[] order = this.getTopologicalOrder(P, Pt);
+            if (order != null && this.walkEngine == WALK_LEAVES) {
+                return this.walkLeaves(Pt, order);
+            } else if (order != null) {
+                W = this.walkTopological(Pt, order);
+            } else {
+                this.logger.showMessage("WARNING: the annotated terms do not form a DAG, falling back to the iterative walk");
+            }
+        }
+        if (W == null) {
+            W = this.walkIterative(P);
+        }
+        //W(leafIndices, allIndices) is a view of the rows of the leafs
+        this.logger.showTimedMessage("Submatrix (W)");
+        return W.getRowsView(this.leafIndices);
+    }
+
+    /*
+     * Same as walk, but W is returned as a sparse matrix. The leaves engine
+     * compresses every row as soon as it is computed, so the dense W is never
+     * stored; the other engines need it anyway, and it is converted at the end.
+     */
+    private SparseMatrix walkSparse() throws IOException {
+        if (this.walkEngine == WALK_LEAVES) {
+            this.logger.showTimedMessage("Initialise transition probabilities");
+            SparseMatrix P = this.initialiseTransitionProbabilities();
+            logger.showMemoryUsage();
+
+            SparseMatrix Pt = P.transpose();
+            int[] order = this.getTopologicalOrder(P, Pt);
+            if (order != null) {
+                return this.walkLeavesSparse(Pt, order);
+            }
+            this.logger.showMessage("WARNING: the annotated terms do not form a DAG, falling back to the iterative walk");
+            Matrix W = this.walkIterative(P);
+            this.logger.showTimedMessage("Submatrix (W)");
+            return new SparseMatrix(W, this.leafIndices, this.allIndices);
+        }
+        return new SparseMatrix(this.walk());
+    }
+
+    private Matrix walkIterative(SparseMatrix P) throws IOException {
         //2. initialise random walkers.
         //keep in mind that this makes sense because of the way the indexes were
         //loaded into this.goTermIndex. Otherwise, we would have to retrieve 
@@ -306,92 +480,264 @@ public class ISM_validImplementation {
         return W_star;
     }
 
-    private void setRandomWalkContributionTermwise(Matrix W) throws IOException {
+    /*
+     * W(l,v) is the probability that a walker starting at v ends up absorbed
+     * in the leaf l. For a leaf it is 1 on itself, for any other node it is
+     * W(l,v) = Sum{c: v->c} P(c,v) W(l,c), so visiting the nodes in an order
+     * where children come before their parents gives the limit of the power
+     * iteration in a single pass. Rows of non-leaf nodes are zero in the limit.
+     */
+    private Matrix walkTopological(SparseMatrix Pt, int[] order) throws IOException {
+        this.logger.showTimedMessage("Walking in topological order");
+        Matrix W = new Matrix(this.getNumGoTerms(), this.getNumGoTerms());
+        float[][] w = W.getArray();
+        for (int l : this.leafIndices) {
+            w[l][l] = 1.0f;
+        }
 
-        this.logger.showTimedMessage("Submatrix (RWC)");
-        this.RWC = W.getMatrix(this.leafIndices, this.allIndices);
-        this.logger.showTimedMessage("Transpose (RWC)");
+        final int[] rowPtr = Pt.getRowPointers();
+        final int[] colIdx = Pt.getColumnIndices();
+        final float[] values = Pt.getValues();
+        for (int v : order) {
+            if (this.leafs.contains(this.gotermIdByIndex.get(v))) {
+                continue;
+            }
+            for (int k = rowPtr[v]; k < rowPtr[v + 1]; k++) {
+                final int c = colIdx[k];
+                final float p = values[k];
+                for (int l : this.leafIndices) {
+                    w[l][v] += p * w[l][c];
+                }
+            }
+        }
+        return W;
+    }
 
-        this.RWC = this.RWC.transpose();
-        this.logger.showTimedMessage("Submatrix (HSM)");
+    /*
+     * Same recurrence as walkTopological, but computed row by row: the row of
+     * the leaf l is W(l,.) and only depends on the entries of that same row,
+     * so every row is an independent sweep over the nodes in topological
+     * order. Rows are distributed among the available threads.
+     */
+    private Matrix walkLeaves(SparseMatrix Pt, int[] order) throws IOException {
+        this.logger.showTimedMessage("Walking in topological order (leafs only, " + Parallel.getNumThreads() + " threads)");
+
+        final LeafSweep sweep = new LeafSweep(Pt, order);
+        final Matrix W = new Matrix(this.leafIndices.length, this.getNumGoTerms());
+        final float[][] w = W.getArray();
+        Parallel.forRange(0, this.leafIndices.length, new Parallel.RangeTask() {
+            @Override
+            public void run(int first, int last) {
+                for (int l = first; l < last; l++) {
+                    sweep.sweep(l, w[l]);
+                }
+            }
+        });
+        return W;
+    }
 
-        Matrix subHSM = this.HSM.getMatrix(this.leafIndices, this.leafIndices);
-        this.logger.showTimedMessage("RWC * HSM");
+    /*
+     * walkLeaves, but every row is swept in a buffer of its thread and then
+     * compressed, so that W is directly built as a sparse matrix.
+     */
+    private SparseMatrix walkLeavesSparse(SparseMatrix Pt, int[] order) throws IOException {
+        this.logger.showTimedMessage("Walking in topological order (leafs only, sparse, " + Parallel.getNumThreads() + " threads)");
+
+        final LeafSweep sweep = new LeafSweep(Pt, order);
+        final int N = this.getNumGoTerms();
+        final int[][] rowCols = new int[this.leafIndices.length][];
+        final float[][] rowVals = new float[this.leafIndices.length][];
+        Parallel.forRange(0, this.leafIndices.length, new Parallel.RangeTask() {
+            @Override
+            public void run(int first, int last) {
+                final float[] row = new float[N];
+                for (int l = first; l < last; l++) {
+                    //entries of the non-leaf nodes are all overwritten by the
+                    //sweep, only the previous leaf has to be cleared
+                    if (l > first) {
+                        row[leafIndices[l - 1]] = 0.0f;
+                    }
+                    sweep.sweep(l, row);
+                    int nnz = 0;
+                    for (int v = 0; v < N; v++) {
+                        if (row[v] != 0.0f) {
+                            nnz++;
+                        }
+                    }
+                    final int[] cols = new int[nnz];
+                    final float[] vals = new float[nnz];
+                    nnz = 0;
+                    for (int v = 0; v < N; v++) {
+                        if (row[v] != 0.0f) {
+                            cols[nnz] = v;
+                            vals[nnz] = row[v];
+                            nnz++;
+                        }
+                    }
+                    rowCols[l] = cols;
+                    rowVals[l] = vals;
+                }
+            }
+        });
+        return SparseMatrix.fromRows(this.leafIndices.length, N, rowCols, rowVals);
+    }
 
-        this.RWC = this.RWC.timesIKJ(subHSM);
-        this.logger.showTimedMessage("Submatrix (W)");
+    /*
+     * The non-leaf nodes in topological order, and their transitions (the rows
+     * of Pt), shared by the threads of the leaves engine.
+     */
+    private class LeafSweep {
+
+        private final int[] nodes;
+        private final int[] start;
+        private final int[] from;
+        private final float[] prob;
+
+        LeafSweep(SparseMatrix Pt, int[] order) {
+            int numNonLeafs = 0;
+            for (int v : order) {
+                if (!leafs.contains(gotermIdByIndex.get(v))) {
+                    numNonLeafs++;
+                }
+            }
+            this.nodes = new int[numNonLeafs];
+            int k = 0;
+            for (int v : order) {
+                if (!leafs.contains(gotermIdByIndex.get(v))) {
+                    this.nodes[k++] = v;
+                }
+            }
+            this.start = Pt.getRowPointers();
+            this.from = Pt.getColumnIndices();
+            this.prob = Pt.getValues();
+        }
 
-        Matrix subW = W.getMatrix(this.leafIndices, this.allIndices).copy();
-        this.logger.showTimedMessage("RWC * SubMatrixW");
+        //row gets W(l,.), its entries of the leafs other than l must be zero
+        void sweep(int l, float[] row) {
+            row[leafIndices[l]] = 1.0f;
+            for (int v : this.nodes) {
+                float s = 0.0f;
+                for (int j = this.start[v]; j < this.start[v + 1]; j++) {
+                    s += this.prob[j] * row[this.from[j]];
+                }
+                row[v] = s;
+            }
+        }
+    }
 
-        this.RWC = this.RWC.timesIKJ(subW);
+    /*
+     * Kahn's algorithm over the transitions: a term is emitted once all of the
+     * children it can move to have been emitted (the self transitions of the
+     * leafs are ignored). The row v of P holds the transitions into v (from
+     * its parents), the row v of its transpose Pt the transitions out of v.
+     * Returns null if there is a cycle.
+     */
+    private int[] getTopologicalOrder(SparseMatrix P, SparseMatrix Pt) {
+        final int N = this.getNumGoTerms();
+        final int[] childPtr = Pt.getRowPointers(), children = Pt.getColumnIndices();
+        final int[] parentPtr = P.getRowPointers(), parents = P.getColumnIndices();
+
+        int[] pending = new int[N];
+        for (int v = 0; v < N; v++) {
+            for (int k = childPtr[v]; k < childPtr[v + 1]; k++) {
+                if (children[k] != v) {
+                    pending[v]++;
+                }
+            }
+        }
+
+        int[] order = new int[N];
+        int head = 0, tail = 0;
+        for (int v = 0; v < N; v++) {
+            if (pending[v] == 0) {
+                order[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int c = order[head++];
+            for (int k = parentPtr[c]; k < parentPtr[c + 1]; k++) {
+                int v = parents[k];
+                if (v != c && --pending[v] == 0) {
+                    order[tail++] = v;
+                }
+            }
+        }
+        return tail == N ? order : null;
+    }
+
+    //W only holds the rows of the leafs, that is, W(leafIndices, allIndices)
+    private void setRandomWalkContributionTermwise(Matrix W) throws IOException {
+
+        this.logger.showTimedMessage("Submatrix (HSM)");
+
+        //a view, whose rows are read by the product as they are needed
+        SymmetricRows subHSM = this.HSM.getSymmetricView(this.leafIndices);
+        //RWC = W' * HSM * W, which is symmetric as HSM is
+        this.logger.showTimedMessage("W' * HSM * W");
+
+        this.RWC = W.symmetricTripleProduct(subHSM);
         this.logger.showTimedMessage("RWC set!");
     }
 
-    private void setRandomWalkContributionGeneWise(Matrix W) throws IOException {
-        //0. get matrix A
-        this.logger.showTimedMessage("Getting matrix A");
-        Matrix A = this.getMatrixA();
-        //1. multiply both matrices.
-        this.logger.showTimedMessage("Getting matrix B");
-        SparseMatrix W_ = W.getSparseMatrix(this.leafIndices, this.allIndices);
-        this.logger.showMessage("Matrix W_ computed. % of sparseness = " + W_.getSparsenessPercentage());
-        Matrix B = W_.times(A); // TODO: optimize this, A is always very sparse
-        this.logger.showMessage("Matrix B computed. % of sparseness = " + B.getSparsenessPercentage());
+    //W only holds the rows of the leafs, that is, W(leafIndices, allIndices)
+    private void setRandomWalkContributionGeneWise(SparseMatrix W) throws IOException {
+        SparseMatrix B = this.getMatrixB(W);
 
         //2. calculate the RWC
         //2.0 traverse all the products.
         //set the value for all eht rows for this column and this row
         //for RWC column_index  == row_index
         this.logger.showTimedMessage("Computing RWC matrix as succesive Jaccard indexes");
-        final int N = this.RWC.getRowDimension(), M = this.RWC.getColumnDimension();
 
+        float IC[] = this.getLeafIC();
+        this.RWC = new SymmetricMatrix(this.numRows);
+        //when B is sparse enough, only the pairs of genes sharing leafs are visited
+        if (SparseJaccardEngine.isFasterThanDense(B)) {
+            this.logger.showTimedMessage("Sparse Jaccard engine");
+            new SparseJaccardEngine(B, IC).fill(this.RWC);
+        } else {
+            this.logger.showTimedMessage("Dense Jaccard engine");
+            new JaccardEngine(B, IC).fill(this.RWC);
+        }
+        this.logger.showTimedMessage("RWC set!");
+    }
+
+    //B = W * A, the distribution of every gene over the leafs
+    private SparseMatrix getMatrixB(SparseMatrix W) throws IOException {
+        //0. get matrix A
+        this.logger.showTimedMessage("Getting matrix A");
+        SparseMatrix A = this.getMatrixA();
+        //1. multiply both matrices.
+        this.logger.showTimedMessage("Getting matrix B");
+        this.logger.showMessage("Matrix W_ computed. % of sparseness = " + W.getSparsenessPercentage());
+        SparseMatrix B = W.timesSparse(A);
+        this.logger.showMessage("Matrix B computed. % of sparseness = " + B.getSparsenessPercentage());
+        return B;
+    }
+
+    //IC of every leaf for the weighted Jaccard index, null for the unweighted one
+    private float[] getLeafIC() throws IOException {
+        float IC[] = null;
         if (this.weightedJaccard) {
             this.logger.showTimedMessage("Jaccard index, _with_ IC");
             // precomputing IC for each leaf
 
             final float invMaxAnnot = 1.0f / (float) this.maxNumberOfAnnotations;
-            float IC[] = new float[this.leafIndices.length];
+            IC = new float[this.leafIndices.length];
             for (int i = 0; i < this.leafIndices.length; i++) {
                 //we need to fetch  the information content of the nodes if we use weighted jaccard.
                 IC[i] = (float) -Math.log(this.numAnnotations.get(this.gotermIdByIndex.get(this.leafIndices[i])) * invMaxAnnot);
             }
-
-            for (int i = 0; i < N; i++) {
-                float column_i[] = B.getColumn(i);
-                for (int j = i; j < M; j++) {
-                    float jaccardIndex = this.getJaccardIndexWithIC(column_i, B.getColumn(j), IC);
-                    this.RWC.set(i, j, jaccardIndex);
-                    this.RWC.set(j, i, jaccardIndex);
-                }
-            }
         } else {
             this.logger.showTimedMessage("Jaccard index, _without_ IC");
-            float sums[] = new float[N];
-            for (int i = 0; i < N; i++) {
-                float sum = 0.0f;
-                for (float val : B.getColumn(i)) {
-                    sum += val;
-                }
-                sums[i] = sum;
-            }
-
-            for (int i = 0; i < N; i++) {
-                float column_i[] = B.getColumn(i);
-                for (int j = i; j < M; j++) {
-                    float jaccardIndex = this.getJaccardIndexWithoutIC(column_i, B.getColumn(j), sums[i], sums[j]);
-                    this.RWC.set(i, j, jaccardIndex);
-                    this.RWC.set(j, i, jaccardIndex);
-                }
-            }
         }
-        this.logger.showTimedMessage("RWC set!");
+        return IC;
     }
 
-    private Matrix getMatrixA() throws IOException {
+    private SparseMatrix getMatrixA() throws IOException {
 
         //Matrix A = new Matrix(this.getNumGoTerms(), this.annotations.sizeGenes());
-        Matrix A = new Matrix(this.getNumGoTerms(), this.RWC.getColumnDimension());
+        SparseMatrix.Builder builder = new SparseMatrix.Builder(this.getNumGoTerms(), this.numRows);
         for (GOTerm currentGoTerm : this.subGoTerms) {
             //0. check for NStar value > 0, since this indicates there
             //is an annotation 
@@ -401,10 +747,7 @@ public class ISM_validImplementation {
                 Set<String> uniqueAnnotations = new HashSet<String>(this.annotations.getProteinsForGOTerm(currentGoTerm.getGOid()));
                 //1. Get all the genes annotating the children of the current node
                 //1.0 get all the children
-                Set<GOTerm> children = new HashSet<GOTerm>();
-                for (String currentRelation : this.relations) {
-                    children.addAll(currentGoTerm.getChildrenForRelation(currentRelation));
-                }
+                GOTerm[] children = this.getChildren(currentGoTerm);
                 //1.1 get all the genes for the children.
                 Set<String> childrenAnnotations = new HashSet<String>();
                 for (GOTerm currentChild : children) {
@@ -419,48 +762,20 @@ public class ISM_validImplementation {
                     //but it should not be a very complicated problem to solve.
                     int count = this.annotations.getGOTermScoresForProteinId(uniqueAnnotation).keySet().size();
                     //0. get the protein id.
-                    A.set(this.goTermIndex.get(currentGoTerm.getNumericId()), this.proteinIndices.get(uniqueAnnotation), 1.0f / count);
+                    builder.set(this.goTermIndex.get(currentGoTerm.getNumericId()), this.proteinIndices.get(uniqueAnnotation), 1.0f / count);
                 }
             }
         }
+        SparseMatrix A = builder.build();
         this.logger.showMessage("Matrix A computed. % of sparseness = " + A.getSparsenessPercentage());
         return A;
     }
 
-    private float getJaccardIndexWithoutIC(final float[] distributionProductOne, final float[] distributionProductTwo, float sumProductOne, float sumProductTwo) {
-        //0. gather data
-        float combinedSum = 0.0f;
-        //float sumProductOne = 0.0f, sumProductTwo = 0.0f;
-
-        for (int i = 0; i < this.leafIndices.length; i++) {
-            //compute data independently
-            combinedSum += distributionProductOne[i] * distributionProductTwo[i];
-            //sumProductOne += distributionProductOne[i];
-            //sumProductTwo += distributionProductTwo[i];
-        }
-        //1. compute the jaccard index
-        return (combinedSum / (sumProductOne + sumProductTwo - combinedSum));
-    }
-
-    private float getJaccardIndexWithIC(final float[] distributionProductOne, final float[] distributionProductTwo, final float[] IC) {
-        //0. gather data
-        float combinedSum = 0.0f;
-        float sumProductOne = 0.0f, sumProductTwo = 0.0f;
-
-        for (int i = 0; i < this.leafIndices.length; i++) {
-
-            //we need to fetch  the information content of the nodes if we use weighted jaccard.
-            //compute data independently
-            combinedSum += distributionProductOne[i] * distributionProductTwo[i] * IC[i];
-            sumProductOne += distributionProductOne[i] * IC[i];
-            sumProductTwo += distributionProductTwo[i] * IC[i];
-        }
-        //1. compute the jaccard index
-        return (combinedSum / (sumProductOne + sumProductTwo - combinedSum));
-    }
-
-    private Matrix getISM() {
-        return (this.HSM.plus(RWC)).times(0.5f);
+    //ISM = (HSM + RWC) / 2, computed in place over the RWC
+    private SymmetricMatrix getISM() {
+        SymmetricMatrix ISM = this.RWC.plusEquals(this.HSM).timesEquals(0.5f);
+        this.RWC = null;
+        return ISM;
     }
 
     //**************************************************************************
@@ -493,10 +808,7 @@ public class ISM_validImplementation {
             int currentGoTermAnnotationCount = this.getNumberOfAnnotations(currentGoTerm);
             //1. get all annotations for the children.
 
-            Set<GOTerm> children = new HashSet<GOTerm>();
-            for (String currentRelation : this.relations) {//again, we consider all relations at once.
-                children.addAll(currentGoTerm.getChildrenForRelation(currentRelation));
-            }
+            GOTerm[] children = this.getChildren(currentGoTerm); //again, we consider all relations at once.
 
 
             Set<String> proteinsAnnotatedToChildren = new HashSet<String>();
@@ -523,16 +835,9 @@ public class ISM_validImplementation {
     private void setAllLeafs() {
 
         for (GOTerm term : this.subGoTerms) {
-            boolean isLeaf = true;
-            for (String relation : this.relations) {
-                //is it a leaf for ALL the ontologies? otherwise, 
-                //it is not really a leaf..
-                if (!this.isLeafISM(term, relation)) {
-                    isLeaf = false;
-                    break;
-                }
-            }
-            if (isLeaf) {
+            //is it a leaf for ALL the relations? otherwise, 
+            //it is not really a leaf..
+            if (this.isLeafISM(term)) {
                 this.leafs.add(term.getNumericId());
             }
         }
@@ -545,19 +850,13 @@ public class ISM_validImplementation {
      * and find the number of annotations. If it all of the children do not have annotations
      * then it is a leaf, oftherwise, it is not.
      */
-    private boolean isLeafISM(GOTerm currentTerm, String relation) {
-
-        List<GOTerm> children = currentTerm.getChildrenForRelation(relation);
+    private boolean isLeafISM(GOTerm currentTerm) {
 
-        //if it is emtpy, then the thing is a leaf, for sure
+        //if it has no children, then the thing is a leaf, for sure
         //keep in mind that we only check children for nodes with annotations
-        if (children.isEmpty()) {
-            return true;
-        }
         //check the annotation count for each of the children, in case the thing
         //has children
-
-        for (GOTerm currentChild : children) {
+        for (GOTerm currentChild : this.getChildren(currentTerm)) {
             //the easy way: is the intersection between children and this.goTerms 
             //emtpy?
             if (this.getNumberOfAnnotations(currentChild) > 0) {
@@ -567,6 +866,12 @@ public class ISM_validImplementation {
         return true;
     }
 
+    //all the children of a term, following any of the relations (every child only once)
+    private GOTerm[] getChildren(GOTerm currentTerm) {
+        OntologyGraph graph = currentTerm.getGraph();
+        return graph.getTerms(graph.getChildren(currentTerm.getIndex(), graph.getRelationMask(this.relations)));
+    }
+
     private int[] getLeafIndices() {
         int allIdx[] = new int[this.leafs.size()];
         int j = 0;
@@ -0,0 +1,132 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ISM_ImplementationStrategies;
+
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import util.FloatKernels;
+import util.Parallel;
+
+/**
+ * Computes the (weighted) Jaccard index between every pair of columns of B,
+ * that is, between the leaf distributions of every pair of genes. B is
+ * transposed once, so every gene is a contiguous vector, and the sums of
+ * every gene are computed only once. Pairs are processed by tiles of genes,
+ * so that both tiles stay in cache, and tiles are distributed among the
+ * threads of util.Parallel.
+ */
+class JaccardEngine {
+
+    /**
+     * Number of genes in a tile
+     */
+    private static final int TILE = 64;
+    /**
+     * Inner loops (scalar or SIMD)
+     */
+    private static final FloatKernels KERNELS = FloatKernels.getKernels();
+    /**
+     * Distribution of every gene over the leafs (one row per gene)
+     */
+    private final float[][] genes;
+    /**
+     * (Weighted) sum of the distribution of every gene
+     */
+    private final float[] sums;
+    /**
+     * IC of every leaf, null for the unweighted index
+     */
+    private final float[] IC;
+    private final int numLeafs;
+
+    /**
+     * @param B distribution of the genes over the leafs (one column per gene)
+     * @param IC IC of every leaf, null for the unweighted index
+     */
+    JaccardEngine(SparseMatrix B, float[] IC) {
+        this.genes = B.transpose().toMatrix().getArray();
+        this.IC = IC;
+        this.numLeafs = B.getRowDimension();
+        this.sums = new float[this.genes.length];
+        for (int g = 0; g < this.genes.length; g++) {
+            final float[] d = this.genes[g];
+            float sum = 0.0f;
+            if (IC == null) {
+                for (int l = 0; l < this.numLeafs; l++) {
+                    sum += d[l];
+                }
+            } else {
+                for (int l = 0; l < this.numLeafs; l++) {
+                    sum += d[l] * IC[l];
+                }
+            }
+            this.sums[g] = sum;
+        }
+    }
+
+    /**
+     * Sets RWC(i,j) to the Jaccard index of the genes i and j.
+     *
+     * @param RWC a symmetric matrix, with as many rows as genes
+     */
+    void fill(final SymmetricMatrix RWC) {
+        final int numGenes = this.genes.length;
+        final int numTiles = (numGenes + TILE - 1) / TILE;
+        Parallel.forRange(0, numTiles, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int ti = from; ti < to; ti++) {
+                    final int iStart = ti * TILE, iEnd = Math.min(iStart + TILE, numGenes);
+                    for (int jStart = iStart; jStart < numGenes; jStart += TILE) {
+                        final int jEnd = Math.min(jStart + TILE, numGenes);
+                        fillTile(RWC, iStart, iEnd, jStart, jEnd);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets row[j] to the Jaccard index of the genes i and j, for every gene j.
+     *
+     * @param i gene
+     * @param row as many positions as genes
+     */
+    void row(int i, float[] row) {
+        final float[] d_i = this.genes[i];
+        final float sum_i = this.sums[i];
+        for (int j = 0; j < this.genes.length; j++) {
+            final float combinedSum = this.IC == null
+                    ? KERNELS.dot(d_i, this.genes[j], this.numLeafs)
+                    : KERNELS.dot(d_i, this.genes[j], this.IC, this.numLeafs);
+            row[j] = combinedSum / (sum_i + this.sums[j] - combinedSum);
+        }
+    }
+
+    private void fillTile(SymmetricMatrix RWC, int iStart, int iEnd, int jStart, int jEnd) {
+        for (int i = iStart; i < iEnd; i++) {
+            final float[] d_i = this.genes[i];
+            final float sum_i = this.sums[i];
+            for (int j = Math.max(i, jStart); j < jEnd; j++) {
+                final float[] d_j = this.genes[j];
+                final float combinedSum = this.IC == null
+                        ? KERNELS.dot(d_i, d_j, this.numLeafs)
+                        : KERNELS.dot(d_i, d_j, this.IC, this.numLeafs);
+                final float jaccardIndex = combinedSum / (sum_i + this.sums[j] - combinedSum);
+                RWC.set(i, j, jaccardIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ISM_ImplementationStrategies;
+
+import Jama.SparseMatrix;
+import Jama.SymmetricMatrix;
+import java.util.Arrays;
+import util.Parallel;
+
+/**
+ * Sparse version of the JaccardEngine. Every gene is stored as the list of
+ * the leafs it reaches (the rows of B'), and every leaf as the list of genes
+ * reaching it (the rows of B, i.e. an inverted index). The intersection of
+ * the gene i with every other gene is accumulated only over the leafs of i,
+ * so pairs of genes without any leaf in common are never visited.
+ *
+ * The non-zero terms are added in the same order as in the dense engine, so
+ * both give the same results.
+ */
+class SparseJaccardEngine {
+
+    /**
+     * The sparse engine is used when it needs this many times fewer
+     * multiplications than the dense one, as it accesses memory randomly
+     */
+    private static final int DENSE_TO_SPARSE_COST = 4;
+    /**
+     * leafs x genes, the genes of every leaf
+     */
+    private final SparseMatrix B;
+    /**
+     * genes x leafs, the leafs of every gene
+     */
+    private final SparseMatrix Bt;
+    /**
+     * (Weighted) sum of the distribution of every gene
+     */
+    private final float[] sums;
+    /**
+     * IC of every leaf, null for the unweighted index
+     */
+    private final float[] IC;
+    /**
+     * Accumulators of the row being computed by every thread (see row)
+     */
+    private final ThreadLocal<RowWorkspace> workspaces;
+
+    /**
+     * @param B distribution of the genes over the leafs (one column per gene)
+     * @param IC IC of every leaf, null for the unweighted index
+     */
+    SparseJaccardEngine(SparseMatrix B, float[] IC) {
+        this.B = B;
+        this.Bt = B.transpose();
+        this.IC = IC;
+        final int[] ptr = this.Bt.getRowPointers();
+        final int[] leaf = this.Bt.getColumnIndices();
+        final float[] val = this.Bt.getValues();
+        this.sums = new float[this.Bt.getRowDimension()];
+        for (int g = 0; g < this.sums.length; g++) {
+            float sum = 0.0f;
+            for (int k = ptr[g]; k < ptr[g + 1]; k++) {
+                sum += IC == null ? val[k] : val[k] * IC[leaf[k]];
+            }
+            this.sums[g] = sum;
+        }
+        final int numGenes = this.sums.length;
+        this.workspaces = new ThreadLocal<RowWorkspace>() {
+            @Override
+            protected RowWorkspace initialValue() {
+                return new RowWorkspace(numGenes);
+            }
+        };
+    }
+
+    /**
+     * Tells whether the sparse engine is expected to be faster than the
+     * dense one for the given B, comparing the number of products each of
+     * them performs.
+     *
+     * @param B distribution of the genes over the leafs (one column per gene)
+     */
+    static boolean isFasterThanDense(SparseMatrix B) {
+        final int[] ptr = B.getRowPointers();
+        final double numGenes = B.getColumnDimension();
+        double sparseCost = 0.0;
+        for (int l = 0; l < B.getRowDimension(); l++) {
+            double genesInLeaf = ptr[l + 1] - ptr[l];
+            sparseCost += genesInLeaf * (genesInLeaf + 1) / 2;
+        }
+        double denseCost = numGenes * (numGenes + 1) / 2 * B.getRowDimension();
+        return sparseCost * DENSE_TO_SPARSE_COST < denseCost;
+    }
+
+    /**
+     * Sets RWC(i,j) to the Jaccard index of the genes i and j.
+     *
+     * @param RWC a symmetric matrix, with as many rows as genes
+     */
+    void fill(final SymmetricMatrix RWC) {
+        final int numGenes = this.sums.length;
+        Parallel.forRange(0, numGenes, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                float[] intersection = new float[numGenes];
+                int[] touched = new int[numGenes];
+                boolean[] isTouched = new boolean[numGenes];
+                for (int i = from; i < to; i++) {
+                    fillGene(RWC, i, i, intersection, touched, isTouched, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets row[j] to the Jaccard index of the genes i and j, for every gene j.
+     *
+     * @param i gene
+     * @param row as many positions as genes
+     */
+    void row(int i, float[] row) {
+        final RowWorkspace w = this.workspaces.get();
+        Arrays.fill(row, 0.0f);
+        this.fillGene(null, i, 0, w.intersection, w.touched, w.isTouched, row);
+    }
+
+    //Jaccard index of the gene i with the genes j >= first, written to C,
+    //or to row if C is null
+    private void fillGene(SymmetricMatrix C, int i, int first, float[] intersection, int[] touched, boolean[] isTouched, float[] row) {
+        final int[] gPtr = this.Bt.getRowPointers();
+        final int[] gLeaf = this.Bt.getColumnIndices();
+        final float[] gVal = this.Bt.getValues();
+        final int[] lPtr = this.B.getRowPointers();
+        final int[] lGene = this.B.getColumnIndices();
+        final float[] lVal = this.B.getValues();
+        final float sum_i = this.sums[i];
+        int numTouched = 0;
+
+        //0. accumulate the intersections with the genes j >= first, leaf by leaf
+        for (int k = gPtr[i]; k < gPtr[i + 1]; k++) {
+            final int l = gLeaf[k];
+            final float v = gVal[k];
+            // genes are sorted within the leaf, skip those before first
+            int kk = Arrays.binarySearch(lGene, lPtr[l], lPtr[l + 1], first);
+            if (kk < 0) {
+                kk = -kk - 1;
+            }
+            for (; kk < lPtr[l + 1]; kk++) {
+                final int j = lGene[kk];
+                if (!isTouched[j]) {
+                    isTouched[j] = true;
+                    touched[numTouched++] = j;
+                }
+                intersection[j] += this.IC == null ? v * lVal[kk] : v * lVal[kk] * this.IC[l];
+            }
+        }
+
+        //1. Jaccard index of the touched pairs, resetting the accumulators
+        for (int t = 0; t < numTouched; t++) {
+            final int j = touched[t];
+            final float combinedSum = intersection[j];
+            final float jaccardIndex = combinedSum / (sum_i + this.sums[j] - combinedSum);
+            if (C == null) {
+                row[j] = jaccardIndex;
+            } else {
+                C.set(i, j, jaccardIndex);
+            }
+            intersection[j] = 0.0f;
+            isTouched[j] = false;
+        }
+
+        //2. pairs without leafs in common have an empty intersection, whose
+        //index is 0, or undefined (0/0) if both genes reach no leaf at all
+        if (sum_i == 0.0f) {
+            for (int j = first; j < this.sums.length; j++) {
+                if (this.sums[j] == 0.0f && C == null && row[j] == 0.0f) {
+                    row[j] = Float.NaN;
+                } else if (this.sums[j] == 0.0f && C != null && C.get(i, j) == 0.0f) {
+                    C.set(i, j, Float.NaN);
+                }
+            }
+        }
+    }
+
+    private static class RowWorkspace {
+
+        private final float[] intersection;
+        private final int[] touched;
+        private final boolean[] isTouched;
+
+        private RowWorkspace(int numGenes) {
+            this.intersection = new float[numGenes];
+            this.touched = new int[numGenes];
+            this.isTouched = new boolean[numGenes];
+        }
+    }
+}
@@ -308,18 +308,16 @@ public class Matrix implements Cloneable, java.io.Serializable {
         return (double) num_sparse / (double) (n * m) * 100.0;
     }
     
+    /**
+     * Get a submatrix, in compressed sparse row format.
+     *
+     * @param r Array of row indices.
+     * @param c Array of column indices.
+     * @return A(r(:),c(:))
+     * @exception ArrayIndexOutOfBoundsException Submatrix indices
+     */
     public SparseMatrix getSparseMatrix(int[] r, int[] c) {
-        SparseMatrix X = new SparseMatrix(r.length, c.length);
-        try {
-            for (int i = 0; i < r.length; i++) {
-                for (int j = 0; j < c.length; j++) {
-                    X.set(i, j, A[r[i]][c[j]]);
-                }
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
-        }
-        return X;
+        return new SparseMatrix(this, r, c);
     }
 
     /**
@@ -393,6 +391,27 @@ public class Matrix implements Cloneable, java.io.Serializable {
         return X;
     }
 
+    /**
+     * Get a view of some rows, which shares their storage with this matrix:
+     * no element is copied, and changes in either of them are seen by both.
+     * Any kernel taking a Matrix takes a view too.
+     *
+     * @param r Array of row indices.
+     * @return A(r(:),:)
+     * @exception ArrayIndexOutOfBoundsException Submatrix indices
+     */
+    public Matrix getRowsView(int[] r) {
+        float[][] B = new float[r.length][];
+        try {
+            for (int i = 0; i < r.length; i++) {
+                B[i] = A[r[i]];
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+        }
+        return new Matrix(B, r.length, n);
+    }
+
     /**
      * Set a single element.
      *
@@ -782,7 +801,9 @@ public class Matrix implements Cloneable, java.io.Serializable {
     }
 
     /**
-     * Linear algebraic matrix multiplication, A * B
+     * Linear algebraic matrix multiplication, A * B. Zero entries of A are
+     * skipped, so the result only matches timesIJK for a B without NaN or
+     * infinite entries (see MatrixMultiplication).
      *
      * @param B another matrix
      * @return Matrix product, A * B
@@ -793,21 +814,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
             throw new IllegalArgumentException("Matrix inner dimensions must agree.");
         }
         Matrix X = new Matrix(m, B.n);
-        float[][] C = X.getArray();
-        float[] Bcolj = new float[n];
-        for (int j = 0; j < B.n; j++) {
-            for (int k = 0; k < n; k++) {
-                Bcolj[k] = B.A[k][j];
-            }
-            for (int i = 0; i < m; i++) {
-                float[] Arowi = A[i];
-                float s = 0;
-                for (int k = 0; k < n; k++) {
-                    s += Arowi[k] * Bcolj[k];
-                }
-                C[i][j] = s;
-            }
-        }
+        MatrixMultiplication.multiply(A, B.A, X.getArray(), m, n, B.n);
         return X;
     }
 
@@ -834,26 +841,41 @@ public class Matrix implements Cloneable, java.io.Serializable {
         return X;
     }
 
-    public Matrix timesIKJ(Matrix B) {
-        if (B.m != n) {
+    /**
+     * Symmetric triple product, A' * H * A, for a symmetric H whose rows are
+     * read as they are needed (e.g. a view of a SymmetricMatrix, see
+     * SymmetricMatrix.getSymmetricView), so H is never unpacked. Only the
+     * upper triangle is computed, packed in a SymmetricMatrix, and A is never
+     * transposed. Zero entries of H and A are skipped, as in times(Matrix).
+     *
+     * @param H a symmetric matrix, with as many rows as A
+     * @return Matrix product, A' * H * A
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public SymmetricMatrix symmetricTripleProduct(SymmetricRows H) {
+        if (H.getRowDimension() != m) {
             throw new IllegalArgumentException("Matrix inner dimensions must agree.");
         }
-        Matrix X = new Matrix(m, B.n);
-        float[][] _C = X.getArray();
-        final float[][] _A = this.getArray();
-        final float[][] _B = B.getArray();
-
-        final int n_b = B.n;
-        for (int i = 0; i < m; i++) {
-            for (int k = 0; k < n; k++) {
-                for (int j = 0; j < n_b; ++j) {
-                    _C[i][j] += _A[i][k] * _B[k][j];
-                }
-            }
-        }
+        // T = H * A, so that A' * H * A = A' * T
+        Matrix T = new Matrix(m, n);
+        MatrixMultiplication.multiply(H, A, T.A, m, m, n);
+        SymmetricMatrix X = new SymmetricMatrix(n);
+        MatrixMultiplication.transposeMultiplyUpper(A, T.A, X, m, n);
         return X;
     }
 
+    /**
+     * Matrix multiplication with the i-k-j loop order, A * B. It runs on the
+     * blocked, multithreaded engine, like times(Matrix).
+     *
+     * @param B another matrix
+     * @return Matrix product, A * B
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public Matrix timesIKJ(Matrix B) {
+        return this.times(B);
+    }
+
     /**
      * LU Decomposition
      *
@@ -0,0 +1,165 @@
+package Jama;
+
+import java.util.Arrays;
+import util.FloatKernels;
+import util.Parallel;
+
+/**
+ * Dense matrix multiplication engine used by Matrix.times, Matrix.timesIKJ
+ * and Matrix.symmetricTripleProduct. The product is cache blocked: a tile of
+ * rows of A is multiplied by a KB x JB block of B, so that the block of B and
+ * the rows of C being updated stay in cache. Tiles of rows are distributed
+ * among the threads of util.Parallel.
+ *
+ * Every C(i,j) is accumulated with k in increasing order, so the result does
+ * not depend on the number of threads. Zero entries of the left operand are
+ * skipped, which leaves out their products with the right one: if the latter
+ * has NaN or infinite entries, the plain loops would get NaN from 0 * NaN or
+ * 0 * Inf where this engine does not. For finite operands (and the scalar
+ * kernels) the result is the same as the one of the plain i-k-j loop.
+ */
+class MatrixMultiplication {
+
+    /**
+     * Size of the blocks along the inner dimension (rows of B)
+     */
+    private static final int KB = 128;
+    /**
+     * Size of the blocks along the columns of B (4KB of floats per row)
+     */
+    private static final int JB = 1024;
+    /**
+     * Rows of C computed at once by the symmetric products
+     */
+    private static final int TB = 64;
+    /**
+     * Inner loops (scalar or SIMD)
+     */
+    private static final FloatKernels KERNELS = FloatKernels.getKernels();
+
+    private MatrixMultiplication() {
+    }
+
+    /**
+     * C = A * B, where C is zero on entry.
+     *
+     * @param A m x n array
+     * @param B n x p array
+     * @param C m x p array, set to zero
+     * @param m rows of A
+     * @param n columns of A (rows of B)
+     * @param p columns of B
+     */
+    static void multiply(final float[][] A, final float[][] B, final float[][] C,
+            final int m, final int n, final int p) {
+        Parallel.forRange(0, m, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                multiplyRows(A, 0, B, C, from, to, n, p);
+            }
+        });
+    }
+
+    /**
+     * C = A * B, where C is zero on entry, and A is symmetric. The rows of A
+     * are read by tiles of TB rows into a buffer of every thread, so A is
+     * never stored as a whole (see SymmetricRows).
+     *
+     * @param A m x n symmetric matrix (n = m)
+     * @param B n x p array
+     * @param C m x p array, set to zero
+     * @param m rows of A
+     * @param n columns of A (rows of B)
+     * @param p columns of B
+     */
+    static void multiply(final SymmetricRows A, final float[][] B, final float[][] C,
+            final int m, final int n, final int p) {
+        final int numTiles = (m + TB - 1) / TB;
+        Parallel.forRange(0, numTiles, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final float[][] rows = new float[Math.min(TB, m)][n];
+                for (int tile = from; tile < to; tile++) {
+                    final int iStart = tile * TB, iEnd = Math.min(iStart + TB, m);
+                    for (int i = iStart; i < iEnd; i++) {
+                        A.getRow(i, rows[i - iStart]);
+                    }
+                    multiplyRows(rows, iStart, B, C, iStart, iEnd, n, p);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rows [from, to) of C = A * B, where the row i of A is A[i - aOffset]
+     */
+    private static void multiplyRows(float[][] A, int aOffset, float[][] B, float[][] C,
+            int from, int to, int n, int p) {
+        for (int kk = 0; kk < n; kk += KB) {
+            final int kEnd = Math.min(kk + KB, n);
+            for (int jj = 0; jj < p; jj += JB) {
+                final int jEnd = Math.min(jj + JB, p);
+                for (int i = from; i < to; i++) {
+                    final float[] Arowi = A[i - aOffset];
+                    final float[] Crowi = C[i];
+                    for (int k = kk; k < kEnd; k++) {
+                        final float a = Arowi[k];
+                        if (a == 0.0f) {
+                            continue;
+                        }
+                        KERNELS.axpy(a, B[k], Crowi, jj, jEnd);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Upper triangle (j &gt;= i) of C = A' * B, where C is zero on entry.
+     *
+     * @param A l x n array
+     * @param B l x n array
+     * @param C n x n symmetric matrix, set to zero
+     * @param l rows of A and B
+     * @param n columns of A and B
+     */
+    static void transposeMultiplyUpper(final float[][] A, final float[][] B, final SymmetricMatrix C,
+            final int l, final int n) {
+        Parallel.forRange(0, n, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                transposeMultiplyUpperRows(A, B, C, from, to, l, n);
+            }
+        });
+    }
+
+    /**
+     * Rows [from, to) of the upper triangle of C = A' * B. They are computed
+     * by tiles of TB rows in dense buffers, which are then copied to C.
+     */
+    private static void transposeMultiplyUpperRows(float[][] A, float[][] B, SymmetricMatrix C,
+            int from, int to, int l, int n) {
+        final float[][] rows = new float[Math.min(TB, to - from)][n];
+        for (int ii = from; ii < to; ii += TB) {
+            final int iEnd = Math.min(ii + TB, to);
+            for (int jj = ii; jj < n; jj += JB) {
+                final int jEnd = Math.min(jj + JB, n);
+                for (int k = 0; k < l; k++) {
+                    final float[] Arowk = A[k];
+                    final float[] Browk = B[k];
+                    for (int i = ii; i < iEnd && i < jEnd; i++) {
+                        final float a = Arowk[i];
+                        if (a == 0.0f) {
+                            continue;
+                        }
+                        KERNELS.axpy(a, Browk, rows[i - ii], Math.max(i, jj), jEnd);
+                    }
+                }
+            }
+            for (int i = ii; i < iEnd; i++) {
+                C.setRow(i, rows[i - ii]);
+                Arrays.fill(rows[i - ii], 0.0f);
+            }
+        }
+    }
+}
@@ -1,82 +1,462 @@
 package Jama;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Random;
+import java.util.Arrays;
+import util.Parallel;
 
 /**
- * A nice sparse matrix. We assume the dimensions are not changing.Use it
- * carefully!!!!
+ * A sparse matrix in compressed sparse row (CSR) format. Only the non-zero
+ * entries are stored: the column indices and values of row i are found in
+ * positions rowPtr[i] .. rowPtr[i+1]-1 of colIdx and values, sorted by column.
+ * The compressed sparse column (CSC) form of a matrix is the CSR form of its
+ * transpose, see {@link #transpose()}.
  *
- * Only the product and "set" are rewritten
+ * Matrices are immutable once built, either from a dense Matrix or through a
+ * {@link Builder}.
  *
  * @author aeromero
  */
-public class SparseMatrix extends Matrix {
+public class SparseMatrix implements java.io.Serializable {
 
     /**
-     * For each row stores the indices of non-zero columns
+     * Row and column dimensions.
      */
-    ArrayList<HashSet<Integer>> nonZeroIds;
+    private final int m, n;
+    /**
+     * Start of every row in colIdx and values (m + 1 entries)
+     */
+    private final int[] rowPtr;
+    /**
+     * Column of every non-zero entry
+     */
+    private final int[] colIdx;
+    /**
+     * Value of every non-zero entry
+     */
+    private final float[] values;
+
+    /**
+     * Construct a matrix from its CSR arrays, which are not copied. Columns
+     * must be sorted within every row.
+     *
+     * @param m Number of rows.
+     * @param n Number of colums.
+     * @param rowPtr Start of every row (m + 1 entries).
+     * @param colIdx Column of every non-zero entry.
+     * @param values Value of every non-zero entry.
+     */
+    public SparseMatrix(int m, int n, int[] rowPtr, int[] colIdx, float[] values) {
+        if (rowPtr.length != m + 1 || colIdx.length < rowPtr[m] || values.length < rowPtr[m]) {
+            throw new IllegalArgumentException("CSR arrays do not match the dimensions.");
+        }
+        this.m = m;
+        this.n = n;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    /**
+     * Construct a sparse copy of a dense matrix.
+     *
+     * @param A dense matrix
+     */
+    public SparseMatrix(Matrix A) {
+        this(A, null, null);
+    }
+
+    /**
+     * Construct a sparse copy of a submatrix of a dense matrix.
+     *
+     * @param A dense matrix
+     * @param r Array of row indices (null for all the rows).
+     * @param c Array of column indices (null for all the columns).
+     * @exception ArrayIndexOutOfBoundsException Submatrix indices
+     */
+    public SparseMatrix(Matrix A, int[] r, int[] c) {
+        final float[][] X = A.getArray();
+        this.m = r == null ? A.getRowDimension() : r.length;
+        this.n = c == null ? A.getColumnDimension() : c.length;
+        this.rowPtr = new int[m + 1];
+        try {
+            // first pass: count, second pass: fill
+            for (int i = 0; i < m; i++) {
+                final float[] row = X[r == null ? i : r[i]];
+                int nnz = 0;
+                for (int j = 0; j < n; j++) {
+                    if (row[c == null ? j : c[j]] != 0.0f) {
+                        nnz++;
+                    }
+                }
+                rowPtr[i + 1] = rowPtr[i] + nnz;
+            }
+            this.colIdx = new int[rowPtr[m]];
+            this.values = new float[rowPtr[m]];
+            for (int i = 0; i < m; i++) {
+                final float[] row = X[r == null ? i : r[i]];
+                int k = rowPtr[i];
+                for (int j = 0; j < n; j++) {
+                    final float v = row[c == null ? j : c[j]];
+                    if (v != 0.0f) {
+                        colIdx[k] = j;
+                        values[k] = v;
+                        k++;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+        }
+    }
+
+    public int getRowDimension() {
+        return m;
+    }
+
+    public int getColumnDimension() {
+        return n;
+    }
+
+    /**
+     * @return number of stored (non-zero) entries
+     */
+    public int getNumNonZeros() {
+        return rowPtr[m];
+    }
+
+    /**
+     * Access the internal row pointers.
+     */
+    public int[] getRowPointers() {
+        return rowPtr;
+    }
+
+    /**
+     * Access the internal column indices.
+     */
+    public int[] getColumnIndices() {
+        return colIdx;
+    }
 
-    public SparseMatrix(int m, int n) {
-        super(m, n);
-        if (m > 0) {
-            nonZeroIds = new ArrayList<HashSet<Integer>>();
-            for (int i = 0; i < m; ++i) {
-                this.nonZeroIds.add(new HashSet<Integer>());
+    /**
+     * Access the internal values.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * Get a single element (binary search within the row).
+     *
+     * @param i Row index.
+     * @param j Column index.
+     * @return A(i,j)
+     */
+    public float get(int i, int j) {
+        int k = Arrays.binarySearch(colIdx, rowPtr[i], rowPtr[i + 1], j);
+        return k >= 0 ? values[k] : 0.0f;
+    }
+
+    public double getSparsenessPercentage() {
+        return (1.0 - (double) rowPtr[m] / ((double) m * (double) n)) * 100.0;
+    }
+
+    /**
+     * Matrix transpose, which is also the CSC form of this matrix.
+     *
+     * @return A'
+     */
+    public SparseMatrix transpose() {
+        final int nnz = rowPtr[m];
+        int[] tPtr = new int[n + 1];
+        int[] tIdx = new int[nnz];
+        float[] tVal = new float[nnz];
+        for (int k = 0; k < nnz; k++) {
+            tPtr[colIdx[k] + 1]++;
+        }
+        for (int j = 0; j < n; j++) {
+            tPtr[j + 1] += tPtr[j];
+        }
+        int[] next = Arrays.copyOf(tPtr, n);
+        // rows are visited in order, so columns of the transpose end up sorted
+        for (int i = 0; i < m; i++) {
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                int pos = next[colIdx[k]]++;
+                tIdx[pos] = i;
+                tVal[pos] = values[k];
             }
         }
+        return new SparseMatrix(n, m, tPtr, tIdx, tVal);
     }
 
-    @Override
-    public void set(int i, int j, float s) {
-        super.set(i, j, s);
-        if (s != 0.0f) {
-            this.nonZeroIds.get(i).add(j);
+    /**
+     * Dense copy of the matrix.
+     *
+     * @return the same matrix, as a Matrix
+     */
+    public Matrix toMatrix() {
+        Matrix X = new Matrix(m, n);
+        float[][] C = X.getArray();
+        for (int i = 0; i < m; i++) {
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                C[i][colIdx[k]] = values[k];
+            }
         }
+        return X;
     }
 
-    @Override
+    /**
+     * Sparse times dense multiplication, A * B
+     *
+     * @param B a dense matrix
+     * @return Matrix product, A * B
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
     public Matrix times(Matrix B) {
-        if (B.m != n) {
+        if (B.getRowDimension() != n) {
             throw new IllegalArgumentException("Matrix inner dimensions must agree.");
         }
-        final int n_b = B.n;
+        final int n_b = B.getColumnDimension();
         Matrix X = new Matrix(m, n_b);
+        final float[][] _C = X.getArray();
+        final float[][] _B = B.getArray();
+
+        for (int i = 0; i < m; i++) {
+            final float[] Crowi = _C[i];
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                final float a = values[k];
+                final float[] Browk = _B[colIdx[k]];
+                for (int j = 0; j < n_b; ++j) {
+                    Crowi[j] += a * Browk[j];
+                }
+            }
+        }
+        return X;
+    }
 
-        if (nonZeroIds != null) {
-            float[][] _C = X.getArray();
-            final float[][] _A = this.getArray();
-            final float[][] _B = B.getArray();
+    /**
+     * Sparse times sparse multiplication, with a dense result, A * B
+     *
+     * @param B a sparse matrix
+     * @return Matrix product, A * B
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public Matrix times(SparseMatrix B) {
+        if (B.m != n) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        Matrix X = new Matrix(m, B.n);
+        final float[][] _C = X.getArray();
 
-            for (int i = 0; i < m; i++) {
-                for (int k : this.nonZeroIds.get(i)) {
-                    for (int j = 0; j < n_b; ++j) {
-                        _C[i][j] += _A[i][k] * _B[k][j];
-                    }
+        for (int i = 0; i < m; i++) {
+            final float[] Crowi = _C[i];
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                final float a = values[k];
+                final int row_b = colIdx[k];
+                for (int kk = B.rowPtr[row_b]; kk < B.rowPtr[row_b + 1]; kk++) {
+                    Crowi[B.colIdx[kk]] += a * B.values[kk];
                 }
             }
         }
         return X;
     }
 
-    public static Matrix getRandom(int n, int m) {
-        SparseMatrix rand = new SparseMatrix(n, m);
-        Random r = new Random();
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < m; ++j) {
-                rand.set(i, j, r.nextFloat());
+    /**
+     * Sparse times sparse multiplication, with a sparse result, A * B. Rows of
+     * the result are computed in parallel; every entry is accumulated in the
+     * same order as in times(SparseMatrix).
+     *
+     * @param B a sparse matrix
+     * @return Matrix product, A * B
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public SparseMatrix timesSparse(final SparseMatrix B) {
+        if (B.m != n) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final int[][] rowCols = new int[m][];
+        final float[][] rowVals = new float[m][];
+        Parallel.forRange(0, m, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                // dense accumulator for one row, and the columns touched in it
+                final float[] acc = new float[B.n];
+                final boolean[] isTouched = new boolean[B.n];
+                final int[] touched = new int[B.n];
+                for (int i = from; i < to; i++) {
+                    int numTouched = 0;
+                    for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                        final float a = values[k];
+                        final int row_b = colIdx[k];
+                        for (int kk = B.rowPtr[row_b]; kk < B.rowPtr[row_b + 1]; kk++) {
+                            final int j = B.colIdx[kk];
+                            if (!isTouched[j]) {
+                                isTouched[j] = true;
+                                touched[numTouched++] = j;
+                            }
+                            acc[j] += a * B.values[kk];
+                        }
+                    }
+                    Arrays.sort(touched, 0, numTouched);
+                    int nnz = 0;
+                    for (int t = 0; t < numTouched; t++) {
+                        if (acc[touched[t]] != 0.0f) {
+                            nnz++;
+                        }
+                    }
+                    final int[] cols = new int[nnz];
+                    final float[] vals = new float[nnz];
+                    nnz = 0;
+                    for (int t = 0; t < numTouched; t++) {
+                        final int j = touched[t];
+                        if (acc[j] != 0.0f) {
+                            cols[nnz] = j;
+                            vals[nnz] = acc[j];
+                            nnz++;
+                        }
+                        acc[j] = 0.0f;
+                        isTouched[j] = false;
+                    }
+                    rowCols[i] = cols;
+                    rowVals[i] = vals;
+                }
+            }
+        });
+        return fromRows(m, B.n, rowCols, rowVals);
+    }
+
+    /**
+     * Packs the given rows, whose columns have to be sorted, in a sparse
+     * matrix.
+     *
+     * @param m Number of rows.
+     * @param n Number of colums.
+     * @param rowCols Columns of the non-zero entries of every row.
+     * @param rowVals Values of the non-zero entries of every row.
+     * @return the matrix
+     */
+    public static SparseMatrix fromRows(int m, int n, int[][] rowCols, float[][] rowVals) {
+        int[] ptr = new int[m + 1];
+        for (int i = 0; i < m; i++) {
+            ptr[i + 1] = ptr[i] + rowCols[i].length;
+        }
+        int[] idx = new int[ptr[m]];
+        float[] val = new float[ptr[m]];
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(rowCols[i], 0, idx, ptr[i], rowCols[i].length);
+            System.arraycopy(rowVals[i], 0, val, ptr[i], rowVals[i].length);
+            rowCols[i] = null;
+            rowVals[i] = null;
+        }
+        return new SparseMatrix(m, n, ptr, idx, val);
+    }
+
+    /**
+     * Dense times sparse multiplication, B * A
+     *
+     * @param B a dense matrix
+     * @return Matrix product, B * A
+     * @exception IllegalArgumentException Matrix inner dimensions must agree.
+     */
+    public Matrix leftTimes(Matrix B) {
+        if (B.getColumnDimension() != m) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final int m_b = B.getRowDimension();
+        Matrix X = new Matrix(m_b, n);
+        final float[][] _C = X.getArray();
+        final float[][] _B = B.getArray();
+
+        for (int i = 0; i < m_b; i++) {
+            final float[] Browi = _B[i];
+            final float[] Crowi = _C[i];
+            for (int k = 0; k < m; k++) {
+                final float b = Browi[k];
+                if (b != 0.0f) {
+                    for (int kk = rowPtr[k]; kk < rowPtr[k + 1]; kk++) {
+                        Crowi[colIdx[kk]] += b * values[kk];
+                    }
+                }
             }
         }
-        return rand;
+        return X;
     }
 
-    public static void main(String args[]) {
-        int size_m = 2000;
-        int size_n = 3000;
+    private static final long serialVersionUID = 1;
+
+    /**
+     * Collects entries in any order and packs them in a SparseMatrix. Setting
+     * the same entry twice keeps the last value; zeros are not stored.
+     */
+    public static class Builder {
 
+        private final int m, n;
+        private int size;
+        private int[] rows, cols;
+        private float[] vals;
+
+        public Builder(int m, int n) {
+            this.m = m;
+            this.n = n;
+            this.size = 0;
+            this.rows = new int[16];
+            this.cols = new int[16];
+            this.vals = new float[16];
+        }
 
-        Matrix A = SparseMatrix.getRandom(size_m, size_n);
+        public void set(int i, int j, float s) {
+            if (i < 0 || i >= m || j < 0 || j >= n) {
+                throw new ArrayIndexOutOfBoundsException("Sparse matrix indices");
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * size);
+                cols = Arrays.copyOf(cols, 2 * size);
+                vals = Arrays.copyOf(vals, 2 * size);
+            }
+            rows[size] = i;
+            cols[size] = j;
+            vals[size] = s;
+            size++;
+        }
+
+        public SparseMatrix build() {
+            // bucket the entries by row; within a row they are sorted by
+            // column and then by insertion order, packed in a long
+            int[] ptr = new int[m + 1];
+            for (int k = 0; k < size; k++) {
+                ptr[rows[k] + 1]++;
+            }
+            for (int i = 0; i < m; i++) {
+                ptr[i + 1] += ptr[i];
+            }
+            int[] next = Arrays.copyOf(ptr, m);
+            long[] keys = new long[size];
+            for (int k = 0; k < size; k++) {
+                keys[next[rows[k]]++] = ((long) cols[k] << 32) | k;
+            }
+
+            // drop overwritten entries and zeros
+            int[] rowPtr = new int[m + 1];
+            int[] colIdx = new int[size];
+            float[] values = new float[size];
+            int nnz = 0;
+            for (int i = 0; i < m; i++) {
+                final int from = ptr[i], to = ptr[i + 1];
+                Arrays.sort(keys, from, to);
+                for (int a = from; a < to; a++) {
+                    final int col = (int) (keys[a] >>> 32);
+                    if (a + 1 < to && (int) (keys[a + 1] >>> 32) == col) {
+                        continue; // overwritten by a later set
+                    }
+                    final float val = vals[(int) keys[a]];
+                    if (val != 0.0f) {
+                        colIdx[nnz] = col;
+                        values[nnz] = val;
+                        nnz++;
+                    }
+                }
+                rowPtr[i + 1] = nnz;
+            }
+            return new SparseMatrix(m, n, rowPtr, Arrays.copyOf(colIdx, nnz), Arrays.copyOf(values, nnz));
+        }
     }
 }
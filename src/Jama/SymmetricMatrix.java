@@ -0,0 +1,369 @@
+package Jama;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A square symmetric matrix, of which only the upper triangle (diagonal
+ * included) is stored. Row i of the storage holds the columns i .. n-1 of the
+ * row i of the matrix, so A(i,j) is found in position j-i of the row
+ * min(i,j). This takes half the memory of a Matrix of the same size, and
+ * every value is written only once.
+ *
+ * Rows are kept either in the Java heap (as separate arrays) or, when a
+ * directory has been set with {@link #setMappedDirectory(File)}, in a
+ * memory-mapped temporary file of that directory. In the latter case the data
+ * lives in the page cache of the operating system, and matrices larger than
+ * the heap can be used. The file is removed as soon as it is mapped (or when
+ * the JVM exits, where this is not possible). Both storages are accessed
+ * through the same methods, so no copies are made.
+ *
+ * Only the upper part of a row (columns i .. n-1) is contiguous. The rest of
+ * it is one element of every former row, so reading whole rows with
+ * {@link #getRow(int, float[])} touches a different page for almost every
+ * element of a mapped matrix. Reading all the rows this way (as the top k
+ * neighbours, the views of submatrices and the gene-wise kernels do) is only
+ * efficient while the file fits in the page cache; beyond that, every row
+ * costs about i page faults.
+ *
+ * Different elements (and different rows) can be read and written from
+ * different threads at the same time.
+ */
+public class SymmetricMatrix implements SymmetricRows {
+
+    /**
+     * Maximum size of every mapped region, in bytes.
+     */
+    private static final long MAPPED_REGION_SIZE = 1L << 30;
+    /**
+     * Directory of the files of the new matrices, null to keep them in the
+     * heap.
+     */
+    private static File mappedDirectory = null;
+    /**
+     * Packed rows of the upper triangle, in the heap (row i has n - i
+     * elements), or null.
+     */
+    private final float[][] A;
+    /**
+     * Packed rows of the upper triangle, in a mapped file, or null.
+     */
+    private final FloatBuffer[] B;
+    /**
+     * Row and column dimension.
+     */
+    private final int n;
+
+    /**
+     * Construct an n-by-n symmetric matrix of zeros, in the heap or in a
+     * memory-mapped file (see {@link #setMappedDirectory(File)}).
+     *
+     * @param n Number of rows and columns.
+     * @exception RuntimeException The file could not be mapped.
+     */
+    public SymmetricMatrix(int n) {
+        this.n = n;
+        File directory = getMappedDirectory();
+        if (directory == null) {
+            this.A = new float[n][];
+            for (int i = 0; i < n; i++) {
+                this.A[i] = new float[n - i];
+            }
+            this.B = null;
+        } else {
+            this.A = null;
+            try {
+                this.B = map(n, directory);
+            } catch (IOException e) {
+                throw new RuntimeException("Matrix file could not be mapped in " + directory + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Sets where the matrices created from now on are stored.
+     *
+     * @param directory Directory of their memory-mapped files, null to keep
+     * them in the heap.
+     */
+    public static synchronized void setMappedDirectory(File directory) {
+        mappedDirectory = directory;
+    }
+
+    /**
+     * @return Directory of the memory-mapped files, null if matrices are kept
+     * in the heap.
+     */
+    public static synchronized File getMappedDirectory() {
+        return mappedDirectory;
+    }
+
+    /**
+     * Get row dimension.
+     *
+     * @return n, the number of rows.
+     */
+    @Override
+    public int getRowDimension() {
+        return n;
+    }
+
+    /**
+     * Get column dimension.
+     *
+     * @return n, the number of columns.
+     */
+    public int getColumnDimension() {
+        return n;
+    }
+
+    /**
+     * Get a single element.
+     *
+     * @param i Row index.
+     * @param j Column index.
+     * @return A(i,j)
+     * @exception IndexOutOfBoundsException
+     */
+    public float get(int i, int j) {
+        if (i > j) {
+            return get(j, i);
+        }
+        return A != null ? A[i][j - i] : B[i].get(j - i);
+    }
+
+    /**
+     * Set a single element, that is, both A(i,j) and A(j,i).
+     *
+     * @param i Row index.
+     * @param j Column index.
+     * @param s A(i,j).
+     * @exception IndexOutOfBoundsException
+     */
+    public void set(int i, int j, float s) {
+        if (i > j) {
+            set(j, i, s);
+        } else if (A != null) {
+            A[i][j - i] = s;
+        } else {
+            B[i].put(j - i, s);
+        }
+    }
+
+    /**
+     * Copy a whole row. The columns j &lt; i are read from the rows j, one
+     * element each (see the cost of this for mapped matrices above), and the
+     * columns j &gt;= i are copied from the row i.
+     *
+     * @param i Row index.
+     * @param row Array of (at least) n elements, where A(i,:) is written.
+     */
+    @Override
+    public void getRow(int i, float[] row) {
+        for (int j = 0; j < i; j++) {
+            row[j] = get(j, i);
+        }
+        if (A != null) {
+            System.arraycopy(A[i], 0, row, i, n - i);
+        } else {
+            B[i].duplicate().get(row, i, n - i);
+        }
+    }
+
+    /**
+     * Set the upper part of a row, that is, A(i,j) = row[j] for j &gt;= i (the
+     * rest of the row is ignored).
+     *
+     * @param i Row index.
+     * @param row Array of (at least) n elements.
+     */
+    public void setRow(int i, float[] row) {
+        if (A != null) {
+            System.arraycopy(row, i, A[i], 0, n - i);
+        } else {
+            B[i].duplicate().put(row, i, n - i);
+        }
+    }
+
+    /**
+     * Get a submatrix.
+     *
+     * @param r Array of row indices.
+     * @param c Array of column indices.
+     * @return A(r(:),c(:))
+     * @exception ArrayIndexOutOfBoundsException Submatrix indices
+     */
+    public Matrix getMatrix(int[] r, int[] c) {
+        Matrix X = new Matrix(r.length, c.length);
+        float[][] C = X.getArray();
+        try {
+            for (int i = 0; i < r.length; i++) {
+                for (int j = 0; j < c.length; j++) {
+                    C[i][j] = get(r[i], c[j]);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+        }
+        return X;
+    }
+
+    /**
+     * Get a view of a principal submatrix: its elements are read from this
+     * matrix when its rows are asked for, and never copied.
+     *
+     * @param r Array of row (and column) indices.
+     * @return A(r(:),r(:))
+     */
+    public SymmetricRows getSymmetricView(final int[] r) {
+        return new SymmetricRows() {
+            @Override
+            public int getRowDimension() {
+                return r.length;
+            }
+
+            @Override
+            public void getRow(int i, float[] row) {
+                final int ri = r[i];
+                for (int j = 0; j < r.length; j++) {
+                    row[j] = get(ri, r[j]);
+                }
+            }
+        };
+    }
+
+    /**
+     * Pack a square matrix.
+     *
+     * @param M Square matrix, of which only the upper triangle (diagonal
+     * included) is read.
+     * @return a SymmetricMatrix with that triangle
+     * @exception IllegalArgumentException The matrix is not square.
+     */
+    public static SymmetricMatrix fromMatrix(Matrix M) {
+        if (M.getRowDimension() != M.getColumnDimension()) {
+            throw new IllegalArgumentException("Matrix must be square.");
+        }
+        float[][] C = M.getArray();
+        SymmetricMatrix X = new SymmetricMatrix(C.length);
+        for (int i = 0; i < C.length; i++) {
+            X.setRow(i, C[i]);
+        }
+        return X;
+    }
+
+    /**
+     * Unpack the matrix.
+     *
+     * @return a (full) Matrix with the same elements
+     */
+    public Matrix toMatrix() {
+        Matrix X = new Matrix(n, n);
+        float[][] C = X.getArray();
+        for (int i = 0; i < n; i++) {
+            getRow(i, C[i]);
+        }
+        return X;
+    }
+
+    /**
+     * A = A + X
+     *
+     * @param X another symmetric matrix
+     * @return A + X
+     */
+    public SymmetricMatrix plusEquals(SymmetricMatrix X) {
+        if (X.n != n) {
+            throw new IllegalArgumentException("Matrix dimensions must agree.");
+        }
+        final float[] row = new float[n], rowX = new float[n];
+        for (int i = 0; i < n; i++) {
+            getPackedRow(i, row);
+            X.getPackedRow(i, rowX);
+            for (int k = 0; k < n - i; k++) {
+                row[k] = row[k] + rowX[k];
+            }
+            setPackedRow(i, row);
+        }
+        return this;
+    }
+
+    /**
+     * Multiply a matrix by a scalar in place, A = s*A
+     *
+     * @param s scalar
+     * @return replace A by s*A
+     */
+    public SymmetricMatrix timesEquals(float s) {
+        final float[] row = new float[n];
+        for (int i = 0; i < n; i++) {
+            getPackedRow(i, row);
+            for (int k = 0; k < n - i; k++) {
+                row[k] = s * row[k];
+            }
+            setPackedRow(i, row);
+        }
+        return this;
+    }
+
+    //the n - i stored elements of the row i, from/to the start of packed
+    private void getPackedRow(int i, float[] packed) {
+        if (A != null) {
+            System.arraycopy(A[i], 0, packed, 0, n - i);
+        } else {
+            B[i].duplicate().get(packed, 0, n - i);
+        }
+    }
+
+    private void setPackedRow(int i, float[] packed) {
+        if (A != null) {
+            System.arraycopy(packed, 0, A[i], 0, n - i);
+        } else {
+            B[i].duplicate().put(packed, 0, n - i);
+        }
+    }
+
+    //maps a new file with the packed rows, as consecutive regions of whole rows
+    private static FloatBuffer[] map(int n, File directory) throws IOException {
+        File file = File.createTempFile("gossto", ".matrix", directory);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(4L * n * (n + 1) / 2);
+            FloatBuffer[] rows = new FloatBuffer[n];
+            long position = 0;
+            int first = 0;
+            while (first < n) {
+                //rows [first, last) in the same region
+                long size = 4L * (n - first);
+                int last = first + 1;
+                while (last < n && size + 4L * (n - last) <= MAPPED_REGION_SIZE) {
+                    size += 4L * (n - last);
+                    last++;
+                }
+                FloatBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, size)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                int offset = 0;
+                for (int i = first; i < last; i++) {
+                    region.clear();
+                    region.position(offset);
+                    region.limit(offset + n - i);
+                    rows[i] = region.slice();
+                    offset += n - i;
+                }
+                position += size;
+                first = last;
+            }
+            return rows;
+        } finally {
+            raf.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
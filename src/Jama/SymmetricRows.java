@@ -0,0 +1,25 @@
+package Jama;
+
+/**
+ * A square symmetric matrix which is read one whole row at a time. The rows
+ * may be stored (as in a SymmetricMatrix) or computed every time they are
+ * asked for, so a matrix can be processed by blocks of rows without ever
+ * being kept in memory.
+ *
+ * Different rows can be read from different threads at the same time.
+ */
+public interface SymmetricRows {
+
+    /**
+     * @return n, the number of rows (and columns).
+     */
+    int getRowDimension();
+
+    /**
+     * Copy a whole row.
+     *
+     * @param i Row index.
+     * @param row Array of (at least) n elements, where A(i,:) is written.
+     */
+    void getRow(int i, float[] row);
+}
@@ -0,0 +1,172 @@
+package Jama;
+
+import util.Parallel;
+
+/**
+ * The k largest entries of every row of a square similarity matrix, that is,
+ * the k nearest neighbours of every entity. Rows are offered one at a time
+ * (and then forgotten), and every row keeps a bounded min-heap of its k best
+ * columns, so memory is O(n k) instead of O(n^2).
+ *
+ * The diagonal (self-similarity) and NaN entries are never kept. Ties are
+ * broken by the lowest column. Different rows can be offered from different
+ * threads at the same time.
+ */
+public class TopKNeighbours {
+
+    /**
+     * Number of rows and maximum number of neighbours per row.
+     */
+    private final int n, k;
+    /**
+     * Heap of row i in positions i*k .. i*k+size[i]-1 (sorted by decreasing
+     * value once the row is finished)
+     */
+    private final int[] columns;
+    private final float[] values;
+    private final int[] size;
+
+    /**
+     * @param n Number of rows.
+     * @param k Maximum number of neighbours per row (no more than n - 1 are
+     * kept).
+     * @exception IllegalArgumentException k is not positive, or n k is larger
+     * than an array.
+     */
+    public TopKNeighbours(int n, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("The number of neighbours must be positive.");
+        }
+        k = Math.min(k, Math.max(1, n - 1));
+        final long length = (long) n * k;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many neighbours: " + n + " rows x " + k + " neighbours do not fit in an array.");
+        }
+        this.n = n;
+        this.k = k;
+        this.columns = new int[(int) length];
+        this.values = new float[(int) length];
+        this.size = new int[n];
+    }
+
+    /**
+     * Top k of every row of a symmetric matrix, rows in parallel.
+     *
+     * @param A symmetric matrix
+     * @param k Maximum number of neighbours per row.
+     * @return the neighbours
+     */
+    public static TopKNeighbours fromMatrix(final SymmetricMatrix A, int k) {
+        final TopKNeighbours topK = new TopKNeighbours(A.getRowDimension(), k);
+        Parallel.forRange(0, topK.n, new Parallel.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                final float[] row = new float[topK.n];
+                for (int i = from; i < to; i++) {
+                    A.getRow(i, row);
+                    topK.offerRow(i, row, null);
+                }
+            }
+        });
+        return topK;
+    }
+
+    public int getRowDimension() {
+        return this.n;
+    }
+
+    public int getK() {
+        return this.k;
+    }
+
+    /**
+     * Sets the neighbours of the row i. Column c of the row is row[columns[c]]
+     * (row[c] if columns is null), and the column i is skipped.
+     *
+     * @param i Row index.
+     * @param row Values of the row.
+     * @param columns Positions of row to consider, null for all of them.
+     */
+    public void offerRow(int i, float[] row, int[] columns) {
+        final int base = i * this.k;
+        final int numColumns = columns == null ? row.length : columns.length;
+        int s = 0;
+        for (int c = 0; c < numColumns; c++) {
+            final float v = columns == null ? row[c] : row[columns[c]];
+            if (c == i || v != v) {
+                continue;
+            }
+            if (s < this.k) {
+                //grow the heap
+                int pos = s++;
+                while (pos > 0 && this.isWorse(v, c, base + ((pos - 1) >> 1))) {
+                    this.move(base + ((pos - 1) >> 1), base + pos);
+                    pos = (pos - 1) >> 1;
+                }
+                this.columns[base + pos] = c;
+                this.values[base + pos] = v;
+            } else if (!this.isWorse(v, c, base)) {
+                //replace the worst neighbour
+                this.siftDown(base, s, v, c);
+            }
+        }
+
+        //heap sort, best neighbour first
+        for (int last = s - 1; last > 0; last--) {
+            final int c = this.columns[base + last];
+            final float v = this.values[base + last];
+            this.move(base, base + last);
+            this.siftDown(base, last, v, c);
+        }
+        this.size[i] = s;
+    }
+
+    /**
+     * @param i Row index.
+     * @return Columns of the neighbours of row i, best first.
+     */
+    public int[] getColumns(int i) {
+        int[] c = new int[this.size[i]];
+        System.arraycopy(this.columns, i * this.k, c, 0, c.length);
+        return c;
+    }
+
+    /**
+     * @param i Row index.
+     * @return Values of the neighbours of row i, best first.
+     */
+    public float[] getValues(int i) {
+        float[] v = new float[this.size[i]];
+        System.arraycopy(this.values, i * this.k, v, 0, v.length);
+        return v;
+    }
+
+    //tells whether (v, c) is a worse neighbour than the one at position p
+    private boolean isWorse(float v, int c, int p) {
+        return v < this.values[p] || (v == this.values[p] && c > this.columns[p]);
+    }
+
+    private void move(int from, int to) {
+        this.columns[to] = this.columns[from];
+        this.values[to] = this.values[from];
+    }
+
+    //places (v, c) at the root of the heap of the given size and sifts it down
+    //(the root of every heap is its worst neighbour)
+    private void siftDown(int base, int heapSize, float v, int c) {
+        int pos = 0;
+        while (2 * pos + 1 < heapSize) {
+            int child = 2 * pos + 1;
+            if (child + 1 < heapSize && this.isWorse(this.values[base + child + 1], this.columns[base + child + 1], base + child)) {
+                child++;
+            }
+            if (this.isWorse(v, c, base + child)) {
+                break;
+            }
+            this.move(base + child, base + pos);
+            pos = child;
+        }
+        this.columns[base + pos] = c;
+        this.values[base + pos] = v;
+    }
+}
@@ -0,0 +1,112 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package util;
+
+/*
+ * Inner loops of the matrix products and of the Jaccard indices. The scalar
+ * implementation is always available. If the SIMD one (util.VectorFloatKernels,
+ * built from src-simd on the Java Vector API) can be loaded, it is used instead;
+ * this needs Java 16 or higher and the JVM to be started with
+ * '--add-modules jdk.incubator.vector'.
+ */
+public abstract class FloatKernels {
+
+    private static final String VECTOR_KERNELS = "util.VectorFloatKernels";
+    private static final FloatKernels kernels = load();
+
+    //the SIMD kernels if they can be loaded, otherwise the scalar ones, which
+    //tell why in their name (it is logged at start-up)
+    private static FloatKernels load() {
+        try {
+            return (FloatKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return new ScalarFloatKernels("SIMD kernels not built");
+        } catch (LinkageError e) {
+            // usually the jdk.incubator.vector module is not there
+            return new ScalarFloatKernels("SIMD kernels not loaded, start Java 16+ with '--add-modules jdk.incubator.vector': " + e);
+        } catch (ReflectiveOperationException e) {
+            return new ScalarFloatKernels("SIMD kernels not loaded: " + e);
+        }
+    }
+
+    /**
+     * @return the kernels in use
+     */
+    public static FloatKernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * @return a short description of the implementation, to be logged
+     */
+    public abstract String getName();
+
+    /**
+     * @return sum of x[i] * y[i], for i in [0, n)
+     */
+    public abstract float dot(float[] x, float[] y, int n);
+
+    /**
+     * @return sum of x[i] * y[i] * w[i], for i in [0, n)
+     */
+    public abstract float dot(float[] x, float[] y, float[] w, int n);
+
+    /**
+     * y[i] += a * x[i], for i in [from, to)
+     */
+    public abstract void axpy(float a, float[] x, float[] y, int from, int to);
+
+    private static class ScalarFloatKernels extends FloatKernels {
+
+        /**
+         * Why the SIMD kernels are not used
+         */
+        private final String reason;
+
+        ScalarFloatKernels(String reason) {
+            this.reason = reason;
+        }
+
+        @Override
+        public String getName() {
+            return "scalar (" + this.reason + ")";
+        }
+
+        @Override
+        public float dot(float[] x, float[] y, int n) {
+            float s = 0.0f;
+            for (int i = 0; i < n; i++) {
+                s += x[i] * y[i];
+            }
+            return s;
+        }
+
+        @Override
+        public float dot(float[] x, float[] y, float[] w, int n) {
+            float s = 0.0f;
+            for (int i = 0; i < n; i++) {
+                s += x[i] * y[i] * w[i];
+            }
+            return s;
+        }
+
+        @Override
+        public void axpy(float a, float[] x, float[] y, int from, int to) {
+            for (int i = from; i < to; i++) {
+                y[i] += a * x[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*This file is part of GOssTo.
+ GOssTo is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ GOssTo is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with GOssTo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * A small helper to run loops over a range of indices in parallel, sharing a
+ * single fork-join pool for the whole execution.
+ */
+public class Parallel {
+
+    /**
+     * Body of a parallel loop, it processes the indices [from, to)
+     */
+    public interface RangeTask {
+
+        void run(int from, int to);
+    }
+
+    private static int numThreads = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool = null;
+
+    public static synchronized void setNumThreads(int _numThreads) {
+        if (_numThreads < 1) {
+            throw new IllegalArgumentException("The number of threads should be at least one");
+        }
+        if (_numThreads != numThreads && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        numThreads = _numThreads;
+    }
+
+    public static int getNumThreads() {
+        return numThreads;
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the task over [from, to), splitting the range in chunks which are
+     * processed by the pool. The call returns once every chunk is done.
+     *
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param task body of the loop
+     */
+    public static void forRange(int from, int to, RangeTask task) {
+        if (to <= from) {
+            return;
+        }
+        if (numThreads == 1 || to - from == 1) {
+            task.run(from, to);
+            return;
+        }
+        // a few chunks per thread, so that uneven rows get balanced
+        final int grain = Math.max(1, (to - from) / (numThreads * 8));
+        getPool().invoke(new RangeAction(from, to, grain, task));
+    }
+
+    private static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1;
+        private final int from, to, grain;
+        private final RangeTask task;
+
+        RangeAction(int from, int to, int grain, RangeTask task) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                task.run(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(from, mid, grain, task), new RangeAction(mid, to, grain, task));
+            }
+        }
+    }
+}